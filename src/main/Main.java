@@ -4,6 +4,9 @@ import utils.data.FolderProvider;
 import web_server.RepoClient;
 import web_server.VersionControlServer;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.Array;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
@@ -19,7 +22,10 @@ public class Main {
             String repoDir = "D:\\IT\\ООП\\практика\\Репозиторий\\tests\\repos";
             dataProvider.setOrigin(repoDir);
 
-            VersionControlServer server = new VersionControlServer(port, dataProvider, repoDir);
+            // Аргумент "selector" включает режим, в котором поток занят сессией только на время команды
+            VersionControlServer.SessionMode mode = (args.length > 0 && args[0].equalsIgnoreCase("selector"))
+                    ? VersionControlServer.SessionMode.SELECTOR : VersionControlServer.SessionMode.THREAD_PER_CLIENT;
+            VersionControlServer server = new VersionControlServer(port, dataProvider, repoDir, mode);
             new Thread(new Runnable() {
                 @Override
                 public void run() {
@@ -27,6 +33,20 @@ public class Main {
                 }
             }).start();
 
+            // Консоль оператора: status пишет снимок пулов и задач сервера в active_threads.txt
+            BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = console.readLine()) != null) {
+                if (!line.trim().equalsIgnoreCase("status"))
+                    continue;
+                try {
+                    server.dumpStatus(Paths.get("active_threads.txt"));
+                    System.out.println("Status written to " + Paths.get("active_threads.txt").toAbsolutePath());
+                } catch (IOException e) {
+                    System.out.println("Cannot write status: " + e.getMessage());
+                }
+            }
+
             TempRepoUser autoClient = new TempRepoUser(new String[]{"add repo", "clone D:\\IT\\ООП\\практика\\Репозиторий\\tests\\local repo", "commit"});
             RepoClient manualClient = new RepoClient();
 
@@ -2,10 +2,10 @@ package main;
 
 import managment.Manager;
 import perfomance.CommandFactory;
+import perfomance.PacketTypes;
 import perfomance.instances.processors.User;
 import utils.data.FolderProvider;
 import utils.data.NetDataTransporter;
-import utils.serializers.Serializer;
 
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -46,9 +46,10 @@ class TempRepoUser {
 
             CommandFactory factory = new CommandFactory();
             NetDataTransporter transporter = new NetDataTransporter(inputStream, outputStream);
-            Manager manager = new Manager(new Serializer(), transporter, factory);
+            Manager manager = new Manager(PacketTypes.createSerializer(), transporter, factory);
             User user = new User(manager, new FolderProvider(), address, System.out);
             manager.setCommandProcessor(user);
+            user.requestInlineTransfers();
 
             for (String command: commands) {
                 if (command.startsWith("commit")){
@@ -24,6 +24,10 @@ public class Manager {
         this.commandProcessor = commandProcessor;
     }
 
+    public IDataTransporter getDataTransporter() {
+        return dataTransporter;
+    }
+
     public ICommand getCommand() throws TransporterException{
         byte[] serializedData = dataTransporter.get();
         ICommandPacket packet = (ICommandPacket) serializer.deserialize(serializedData);
@@ -0,0 +1,35 @@
+package perfomance;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CommandDispatcher {
+    public interface Handler<C extends ICommand> {
+        ICommandPacket handle(C command);
+    }
+
+    private final Map<Class<?>, Handler<ICommand>> handlers;
+
+    public CommandDispatcher(){
+        handlers = new HashMap<>();
+    }
+
+    public <C extends ICommand> CommandDispatcher register(Class<C> commandClass, Handler<? super C> handler){
+        handlers.put(commandClass, command -> handler.handle(commandClass.cast(command)));
+        return this;
+    }
+
+    public boolean canHandle(ICommand command){
+        return command != null && handlers.containsKey(command.getClass());
+    }
+
+    // Возвращает null, если для команды нет обработчика
+    public ICommandPacket dispatch(ICommand command){
+        if (command == null)
+            return null;
+        Handler<ICommand> handler = handlers.get(command.getClass());
+        if (handler == null)
+            return null;
+        return handler.handle(command);
+    }
+}
@@ -3,44 +3,53 @@ package perfomance;
 import perfomance.instances.commands.*;
 import perfomance.instances.packets.*;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
 public class CommandFactory {
+    private final Map<Class<?>, Function<ICommandPacket, ICommand>> factories;
+
+    public CommandFactory(){
+        factories = new HashMap<>();
+        register(EmptyPacket.class, this::createEmptyCommand);
+        register(Md5Packet.class, this::createMd5Command);
+        register(ResponsePacket.class, this::createResponseCommand);
+        register(CommitPacket.class, packet -> new CommitCommand(packet.files, packet.deleted, packet.renamedFrom, packet.renamedTo, packet.deltas));
+        register(SocketPacket.class, packet -> new SocketCommand(packet.socketPort, packet.type));
+        register(RevertPacket.class, packet -> new RevertCommand(packet.version, packet.hard, packet.hasher, packet.names, packet.hashes));
+        register(EncryptionPacket.class, packet -> new EncryptionCommand(packet.secret, packet.type));
+        register(CreatePacket.class, packet -> new CreateCommand(packet.toCreate));
+        register(ClonePacket.class, packet -> new CloneCommand(packet.toClone));
+        register(LogPacket.class, packet -> new LogCommand(packet.type, packet.argument, packet.from, packet.to, packet.limit, packet.before));
+        register(SignaturePacket.class, packet -> new SignatureCommand(packet.type, packet.names, packet.signatures));
+    }
+
+    public <P extends ICommandPacket> void register(Class<P> packetClass, Function<? super P, ? extends ICommand> factory){
+        factories.put(packetClass, packet -> factory.apply(packetClass.cast(packet)));
+    }
+
     public ICommand createCommand(ICommandPacket packet){
         ICommand command = null;
-        if (packet instanceof EmptyPacket)
-            command = createEmptyCommand(packet);
-        else if (packet instanceof Md5Packet)
-            command = createMd5Command(packet);
-        else if (packet instanceof ResponsePacket)
-            command = createResponseCommand(packet);
-        else if (packet instanceof CommitPacket)
-            command = new CommitCommand(((CommitPacket) packet).files);
-        else if (packet instanceof SocketPacket)
-            command = new SocketCommand(((SocketPacket) packet).socketPort, ((SocketPacket) packet).type);
-        else if (packet instanceof RevertPacket)
-            command = new RevertCommand(((RevertPacket) packet).version, ((RevertPacket) packet).hard);
-        else if (packet instanceof EncryptionPacket)
-            command = new EncryptionCommand(((EncryptionPacket) packet).secret, ((EncryptionPacket) packet).type);
-        else if (packet instanceof CreatePacket)
-            command = new CreateCommand(((CreatePacket) packet).toCreate);
-        else if (packet instanceof ClonePacket)
-            command = new CloneCommand(((ClonePacket) packet).toClone);
-        else if (packet instanceof LogPacket)
-            command = new LogCommand(((LogPacket) packet).type);
+        if (packet != null) {
+            Function<ICommandPacket, ICommand> factory = factories.get(packet.getClass());
+            if (factory != null)
+                command = factory.apply(packet);
+        }
         if (command == null)
             command = EmptyCommand.INSTANCE;
         return command;
     }
 
-    private EmptyCommand createEmptyCommand(ICommandPacket packet){
+    private EmptyCommand createEmptyCommand(EmptyPacket packet){
         return EmptyCommand.INSTANCE;
     }
 
-    private Md5Command createMd5Command(ICommandPacket packet){
-        return new Md5Command(((Md5Packet) packet).type, ((Md5Packet) packet).names, ((Md5Packet) packet).md5Bytes);
+    private Md5Command createMd5Command(Md5Packet packet){
+        return new Md5Command(packet.type, packet.names, packet.md5Bytes);
     }
 
-    private ResponseCommand createResponseCommand(ICommandPacket packet){
-        ResponsePacket responsePacket = (ResponsePacket) packet;
-        return new ResponseCommand(responsePacket.error, responsePacket.errorInfo);
+    private ResponseCommand createResponseCommand(ResponsePacket packet){
+        return new ResponseCommand(packet.error, packet.errorInfo);
     }
 }
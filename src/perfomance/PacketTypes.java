@@ -0,0 +1,36 @@
+package perfomance;
+
+import perfomance.instances.packets.*;
+import utils.serializers.BinarySerializer;
+
+public class PacketTypes {
+    // Теги пакетов бинарного протокола. Значения не менять: они передаются по сети
+    public static final int EMPTY = 1;
+    public static final int RESPONSE = 2;
+    public static final int MD5 = 3;
+    public static final int COMMIT = 4;
+    public static final int SOCKET = 5;
+    public static final int REVERT = 6;
+    public static final int ENCRYPTION = 7;
+    public static final int CREATE = 8;
+    public static final int CLONE = 9;
+    public static final int LOG = 10;
+    public static final int SIGNATURE = 11;
+
+    private PacketTypes() {}
+
+    public static BinarySerializer createSerializer(){
+        return new BinarySerializer()
+                .register(EMPTY, EmptyPacket.class)
+                .register(RESPONSE, ResponsePacket.class)
+                .register(MD5, Md5Packet.class)
+                .register(COMMIT, CommitPacket.class)
+                .register(SOCKET, SocketPacket.class)
+                .register(REVERT, RevertPacket.class)
+                .register(ENCRYPTION, EncryptionPacket.class)
+                .register(CREATE, CreatePacket.class)
+                .register(CLONE, ClonePacket.class)
+                .register(LOG, LogPacket.class)
+                .register(SIGNATURE, SignaturePacket.class);
+    }
+}
@@ -4,15 +4,43 @@ import perfomance.ICommand;
 
 public class CommitCommand implements ICommand {
     private final String[] files;
+    private final String[] deleted;
+    private final String[] renamedFrom;
+    private final String[] renamedTo;
+    private final String[] deltas;
 
     public CommitCommand(String[] files){
+        this(files, new String[0], new String[0], new String[0], new String[0]);
+    }
+
+    public CommitCommand(String[] files, String[] deleted, String[] renamedFrom, String[] renamedTo, String[] deltas){
         this.files = files;
+        this.deleted = (deleted == null) ? new String[0] : deleted;
+        this.renamedFrom = (renamedFrom == null) ? new String[0] : renamedFrom;
+        this.renamedTo = (renamedTo == null) ? new String[0] : renamedTo;
+        this.deltas = (deltas == null) ? new String[0] : deltas;
     }
 
     public String[] getFiles() {
         return files;
     }
 
+    public String[] getDeleted() {
+        return deleted;
+    }
+
+    public String[] getRenamedFrom() {
+        return renamedFrom;
+    }
+
+    public String[] getRenamedTo() {
+        return renamedTo;
+    }
+
+    public String[] getDeltas() {
+        return deltas;
+    }
+
     @Override
     public void execute() {
 
@@ -4,18 +4,53 @@ import perfomance.ICommand;
 
 public class LogCommand implements ICommand {
     private final String type;
+    private final String argument;
+    private final long from;
+    private final long to;
+    private final int limit;
+    private final long before;
 
     private LogCommand() {
-        type = null;
+        this(null);
+    }
+
+    public LogCommand(String type){
+        this(type, null, 0, 0, 0, -1);
+    }
+
+    public LogCommand(String type, String argument, long from, long to, int limit, long before){
+        this.type = type;
+        this.argument = argument;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+        this.before = before;
     }
 
     public String getType() {
         return type;
     }
 
-    public LogCommand(String type){
-        this.type = type;
+    public String getArgument() {
+        return argument;
     }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getBefore() {
+        return before;
+    }
+
     @Override
     public void execute() {
 
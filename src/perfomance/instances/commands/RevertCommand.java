@@ -5,10 +5,20 @@ import perfomance.ICommand;
 public class RevertCommand implements ICommand {
     private final String version;
     private final boolean hard;
+    private final String hasher;
+    private final String[] names;
+    private final byte[][] hashes;
 
     public RevertCommand(String version, boolean hard){
+        this(version, hard, null, null, null);
+    }
+
+    public RevertCommand(String version, boolean hard, String hasher, String[] names, byte[][] hashes){
         this.version = version;
         this.hard = hard;
+        this.hasher = hasher;
+        this.names = names;
+        this.hashes = hashes;
     }
 
     public String getVersion() {
@@ -19,6 +29,19 @@ public class RevertCommand implements ICommand {
         return hard;
     }
 
+    public String getHasher() {
+        return hasher;
+    }
+
+    // null, если клиент не прислал состояние рабочей копии
+    public String[] getNames() {
+        return names;
+    }
+
+    public byte[][] getHashes() {
+        return hashes;
+    }
+
     @Override
     public void execute() {
 
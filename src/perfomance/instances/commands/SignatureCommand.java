@@ -0,0 +1,32 @@
+package perfomance.instances.commands;
+
+import perfomance.ICommand;
+
+public class SignatureCommand implements ICommand {
+    private final String type;
+    private final String[] names;
+    private final byte[][] signatures;
+
+    public SignatureCommand(String type, String[] names, byte[][] signatures){
+        this.type = type;
+        this.names = names;
+        this.signatures = signatures;
+    }
+
+    @Override
+    public void execute() {
+
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public byte[][] getSignatures() {
+        return signatures;
+    }
+}
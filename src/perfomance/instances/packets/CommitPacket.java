@@ -3,11 +3,23 @@ package perfomance.instances.packets;
 import perfomance.ICommandPacket;
 
 public class CommitPacket implements ICommandPacket {
-    public String[] files;
+    public String[] files;       // Все файлы новой версии
+    public String[] deleted;     // Удалены по сравнению с версией, от которой сделан коммит
+    public String[] renamedFrom; // Переименованы без изменения содержимого, файлы не передаются
+    public String[] renamedTo;
+    public String[] deltas;      // Переданы дельтой к прежней версии файла
 
     private CommitPacket(){}
 
     public CommitPacket(String[] files){
+        this(files, new String[0], new String[0], new String[0], new String[0]);
+    }
+
+    public CommitPacket(String[] files, String[] deleted, String[] renamedFrom, String[] renamedTo, String[] deltas){
         this.files = files;
+        this.deleted = deleted;
+        this.renamedFrom = renamedFrom;
+        this.renamedTo = renamedTo;
+        this.deltas = deltas;
     }
 }
@@ -3,11 +3,28 @@ package perfomance.instances.packets;
 import perfomance.ICommandPacket;
 
 public class LogPacket implements ICommandPacket {
+    // Типы запроса: "query" - весь лог, "last" - последние limit записей, "since" - записи после версии argument,
+    // "user" - записи пользователя argument, "range" - записи с временем from <= t < to.
+    // before - номер записи, с которой продолжить постраничный запрос (-1 - с конца лога, для since - с записи после версии)
     public String type;
+    public String argument;
+    public long from;
+    public long to;
+    public int limit;
+    public long before;
 
     private LogPacket() {}
 
     public LogPacket(String type){
+        this(type, null, 0, 0, 0, -1);
+    }
+
+    public LogPacket(String type, String argument, long from, long to, int limit, long before){
         this.type = type;
+        this.argument = argument;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+        this.before = before;
     }
 }
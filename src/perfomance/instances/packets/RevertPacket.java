@@ -5,11 +5,21 @@ import perfomance.ICommandPacket;
 public class RevertPacket implements ICommandPacket {
     public String version;
     public boolean hard;
+    public String hasher;    // Хеши рабочей копии клиента; без них сервер передает версию целиком
+    public String[] names;
+    public byte[][] hashes;
 
     private RevertPacket(){ }
 
     public RevertPacket(String version, boolean hard){
+        this(version, hard, null, null, null);
+    }
+
+    public RevertPacket(String version, boolean hard, String hasher, String[] names, byte[][] hashes){
         this.version = version;
         this.hard = hard;
+        this.hasher = hasher;
+        this.names = names;
+        this.hashes = hashes;
     }
 }
@@ -0,0 +1,18 @@
+package perfomance.instances.packets;
+
+import perfomance.ICommandPacket;
+
+public class SignaturePacket implements ICommandPacket {
+    public String type;
+    public String[] names;
+    public byte[][] signatures; // Пустая подпись - у файла нет прежней версии на сервере
+
+    private SignaturePacket(){
+    }
+
+    public SignaturePacket(String type, String[] names, byte[][] signatures){
+        this.type = type;
+        this.names = names;
+        this.signatures = signatures;
+    }
+}
@@ -3,6 +3,7 @@ package perfomance.instances.packets;
 import perfomance.ICommandPacket;
 
 public class SocketPacket implements ICommandPacket {
+    public static final int INLINE_PORT = 0; // Данные следуют следующим сообщением по управляющему соединению
     public int socketPort;
     public String type;
 
@@ -2,6 +2,7 @@ package perfomance.instances.processors;
 
 import javafx.util.Pair;
 import managment.Manager;
+import perfomance.CommandDispatcher;
 import perfomance.ICommand;
 import perfomance.ICommandPacket;
 import perfomance.ICommandProcessor;
@@ -9,27 +10,48 @@ import perfomance.instances.commands.*;
 import perfomance.instances.packets.EmptyPacket;
 import perfomance.instances.packets.Md5Packet;
 import perfomance.instances.packets.ResponsePacket;
+import perfomance.instances.packets.SignaturePacket;
 import perfomance.instances.packets.SocketPacket;
-import utils.Md5Hash;
+import utils.ManifestDiff;
+import utils.ParallelZipper;
+import utils.RollingDelta;
 import utils.Zipper;
 import utils.IVersionIncrement;
+import utils.InvalidDeltaException;
+import utils.data.BlobStore;
+import utils.data.FileEntry;
 import utils.data.IDataProvider;
 import utils.data.IDataTransporter;
+import utils.data.MessageOutputStream;
 import utils.data.NetDataTransporter;
 import utils.data.TransporterException;
+import utils.hash.Hashers;
+import utils.hash.IHashState;
+import utils.hash.IHasher;
+import web_server.CommitLog;
+import web_server.DataChannel;
 import web_server.VersionControl;
 
 import java.io.*;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 public class Repo implements ICommandProcessor {
+    private static final AtomicLong stagingCounter = new AtomicLong(); // Уникальные имена файлов для параллельных коммитов
+    private static final int DEFAULT_LOG_PAGE = 50;
+    private static final int MAX_LOG_PAGE = 1000;
+    private static final IHasher[] STORED_HASHERS = {Hashers.MD5, Hashers.XXHASH64}; // Считаются при коммите, чтобы отвечать на запрос хешей без чтения файлов
     private final String userIdentifier;
     private final Manager manager;
     private final VersionControl versionControl;
+    private final BlobStore blobStore;
     private IDataProvider dataProvider;
     private IDataTransporter dataTransporter;
     private IVersionIncrement versionIncrement;
@@ -40,11 +62,14 @@ public class Repo implements ICommandProcessor {
     private Map<String, String[]> versionContent;
     private Map<String, String> prevVersionMapNames;
     private int socketTimeOut;
-    private int socketPort;
+    private boolean inlineTransfers; // Клиент принимает данные по управляющему соединению
+    private final CommandDispatcher sessionDispatcher; // Команды, доступные до выбора репозитория
+    private final CommandDispatcher repoDispatcher;
 
     public Repo(String usedIdentifier, Manager manager, VersionControl versionControl, IDataProvider dataProvider, IVersionIncrement versionIncrement){
         this.userIdentifier = usedIdentifier;
         this.versionControl = versionControl;
+        this.blobStore = versionControl.getBlobStore();
         this.dataProvider = dataProvider;
         this.dataTransporter = null;
         this.versionIncrement = versionIncrement;
@@ -52,181 +77,486 @@ public class Repo implements ICommandProcessor {
         currentVersion = "";
         lastVersion = "";
         socketTimeOut = 5000 * 3;
+        sessionDispatcher = new CommandDispatcher()
+                .register(CreateCommand.class, this::processCreateCommand)
+                .register(CloneCommand.class, this::processCloneCommand)
+                .register(SocketCommand.class, this::processSocketCommand);
+        repoDispatcher = new CommandDispatcher()
+                .register(CommitCommand.class, this::processCommitCommand)
+                .register(RevertCommand.class, this::processRevertCommand)
+                .register(Md5Command.class, this::processMd5Command)
+                .register(LogCommand.class, this::processLogCommand)
+                .register(SignatureCommand.class, this::processSignatureCommand);
     }
 
     @Override
     public ICommandPacket process(ICommand command) {
-        ICommandPacket response = EmptyPacket.INSTANCE;
-        if (command instanceof CreateCommand)
-            return processCreateCommand(command);
-        else if (command instanceof CloneCommand){
-            String name = ((CloneCommand) command).getToClone();
-            String pathToRepo = versionControl.getPathToRepo(name);
-            if (pathToRepo == null)
-                return new ResponsePacket(VersionControl.NO_SUCH_REPO_ERROR, "No such repo " + name);
-            else {
-                versionMapPaths = versionControl.getVersionMapPaths(name);
-                versionContent = versionControl.getVersionContent(name);
-                prevVersionMapNames = versionControl.getPrevVersionMapNames(name);
-                currentVersion = versionControl.getLastVersion(name);
-                socketPort = versionControl.getRepoPort(name);
-                lastVersion = currentVersion;
-                response = cloneDirectory(name);
-                dataProvider.setOrigin(pathToRepo);
-                currentRepoName = name;
-                return response;
-            }
-        }
+        if (sessionDispatcher.canHandle(command))
+            return sessionDispatcher.dispatch(command);
         if (dataProvider.getOrigin() == null) // Hе можем обработать команды, кроме clone и add.
             return new ResponsePacket(VersionControl.NO_REPO_SELECTED_ERROR, "Clone repo first");
-        else {
-            if (command instanceof CommitCommand){
-                response = processCommitCommand((CommitCommand) command);
-            }
-            else if (command instanceof RevertCommand){
-                response = processRevertCommand(((RevertCommand) command).getVersion(), ((RevertCommand) command).isHard());
-            }
-            else if (command instanceof Md5Command){
-                response = processMd5Command((Md5Command) command);
-            }
-            else if (command instanceof LogCommand){
-                response = processLogCommand((LogCommand) command);
-            }
-            return response;
-        }
+        ICommandPacket response = repoDispatcher.dispatch(command);
+        return (response == null) ? EmptyPacket.INSTANCE : response;
     }
 
-    private boolean isSameFiles(String file1, String file2){
-        byte[] hash1, hash2;
-        try {
-            hash1 = Md5Hash.getMd5Hash(dataProvider.read(file1));
-            hash2 = Md5Hash.getMd5Hash(dataProvider.read(file2));
-        }
-        catch (IOException e){
-            return true;
-        }
-        return (Arrays.equals(hash1, hash2));
+    private ICommandPacket processCloneCommand(CloneCommand command){
+        String name = command.getToClone();
+        String pathToRepo = versionControl.getPathToRepo(name);
+        if (pathToRepo == null)
+            return new ResponsePacket(VersionControl.NO_SUCH_REPO_ERROR, "No such repo " + name);
+        versionMapPaths = versionControl.getVersionMapPaths(name);
+        versionContent = versionControl.getVersionContent(name);
+        prevVersionMapNames = versionControl.getPrevVersionMapNames(name);
+        currentVersion = versionControl.getLastVersion(name);
+        lastVersion = currentVersion;
+        dataProvider.setOrigin(pathToRepo);
+        currentRepoName = name;
+        return cloneDirectory(name);
     }
 
-    private StringBuilder getFormattedFileNames(String version, String[] fileNames, StringBuilder sb){
+    private StringBuilder getFormattedFileNames(String version, String[] fileNames, StringBuilder sb) throws IOException{
         String prevVersion = prevVersionMapNames.get(version);
-        Set<String> prevVersionContent = new HashSet<>(Arrays.asList(versionContent.get(prevVersion)));
-        Set<String> currentVersionContent = new HashSet<>(Arrays.asList(fileNames));
+        Map<String, String> prevVersionHashes = resolveVersion(prevVersion, true);
+        Map<String, String> currentVersionHashes = resolveVersion(version, true);
+        if (prevVersionHashes == null)
+            prevVersionHashes = new HashMap<>();
+        if (currentVersionHashes == null)
+            currentVersionHashes = new HashMap<>();
+        ManifestDiff diff = ManifestDiff.compute(prevVersionHashes, currentVersionHashes);
+        Set<String> added = new HashSet<>(diff.getAdded());
+        Set<String> modified = new HashSet<>(diff.getModified());
+        Map<String, String> renamedTo = new HashMap<>();
+        for (Map.Entry<String, String> entry: diff.getRenamed().entrySet())
+            renamedTo.put(entry.getValue(), entry.getKey());
 
-        String pathToPrev = (prevVersion.isEmpty()) ? null : dataProvider.resolve(dataProvider.getOrigin(), versionMapPaths.get(prevVersion));
-        String pathToCurrent = dataProvider.resolve(dataProvider.getOrigin(), versionMapPaths.get(version));
         for (String fileName: fileNames){
-            if (prevVersionContent.contains(fileName)) {
-                if (!isSameFiles(dataProvider.resolve(pathToPrev, fileName), dataProvider.resolve(pathToCurrent, fileName)))
-                    sb.append("\t").append("^ ").append(fileName).append("\r\n");
-            }
-            else
+            if (modified.contains(fileName))
+                sb.append("\t").append("^ ").append(fileName).append("\r\n");
+            else if (added.contains(fileName))
                 sb.append("\t").append("+ ").append(fileName).append("\r\n");
+            else if (renamedTo.containsKey(fileName))
+                sb.append("\t").append("> ").append(renamedTo.get(fileName)).append(" -> ").append(fileName).append("\r\n");
         }
 
-        for (String name: prevVersionContent){
-            if (!currentVersionContent.contains(name))
-                sb.append("\t").append("- ").append(name).append("\r\n");
-        }
+        for (String name: diff.getDeleted())
+            sb.append("\t").append("- ").append(name).append("\r\n");
         return sb;
     }
 
     private ICommandPacket updateLog(String version, String[] files){
-        String pathToLog = versionControl.getRepoLogFile(currentRepoName);
-        String date = new SimpleDateFormat("dd-MM-yyyy HH:mm").format(new Date());
+        long time = System.currentTimeMillis();
+        String date = new SimpleDateFormat(CommitLog.DATE_FORMAT).format(new Date(time));
         StringBuilder sb = new StringBuilder();
         sb.append(userIdentifier).append(" commits following changes at ").append(date).append(" (version ").append(version).append("):\r\n");
-        sb = getFormattedFileNames(version, files, sb);
-        sb.append("\r\n");
-        byte[] log = sb.toString().getBytes();
         try {
-            dataProvider.append(pathToLog, log);
+            sb = getFormattedFileNames(version, files, sb);
+            sb.append("\r\n");
+            byte[] log = sb.toString().getBytes();
+            versionControl.getCommitLog(currentRepoName).append(userIdentifier, version, time, log);
         } catch (IOException e) {
             return new ResponsePacket(VersionControl.CANNOT_SAVE_LOG, "Can not update log file");
         }
         return new ResponsePacket(VersionControl.SUCCESS, "Ok");
     }
 
-    private ICommandPacket sendToSocket( Pair<ICommandPacket, ServerSocket> packetAndSocket, byte[] bytes){
-        ServerSocket serverSocket = packetAndSocket.getValue();
+    private interface PayloadWriter {
+        void write(OutputStream output) throws IOException;
+    }
+
+    private interface PayloadReader {
+        void read(InputStream input) throws IOException;
+    }
+
+    // Данные идут по управляющему соединению, если клиент это поддерживает, иначе через отдельный сокет
+    private ICommandPacket sendToClient(String type, PayloadWriter payload){
+        if (!inlineTransfers) {
+            Pair<ICommandPacket, DataChannel> packetAndSocket;
+            try {
+                packetAndSocket = createSocket(type);
+            } catch (IOException e) {
+                return new ResponsePacket(VersionControl.SOCKET_ERROR, "Server is busy, try later");
+            }
+            return sendToSocket(packetAndSocket, payload);
+        }
+        try {
+            send(new SocketPacket(SocketPacket.INLINE_PORT, type));
+        }
+        catch (TransporterException e){
+            return new ResponsePacket(VersionControl.TRANSPORT_ERROR, "Cannot send data header");
+        }
+        try {
+            writePayload(manager.getDataTransporter(), payload);
+        }
+        catch (IOException e){
+            return new ResponsePacket(VersionControl.CONNECTION_ERROR, "Unknown error occurred");
+        }
+        return new ResponsePacket(VersionControl.SUCCESS, "Ok");
+    }
+
+    // Данные пишутся прямо в сокет частями, без сборки всего сообщения в памяти
+    private ICommandPacket sendToSocket( Pair<ICommandPacket, DataChannel> packetAndSocket, PayloadWriter payload){
+        DataChannel channel = packetAndSocket.getValue();
         Socket dataSocket = null;
         try {
             send(packetAndSocket.getKey());
         }
         catch (TransporterException e){
+            close(channel);
             return new ResponsePacket(VersionControl.TRANSPORT_ERROR, "Cannot send port to connect to");
         }
         InputStream is = null;
         OutputStream os = null;
         try {
-            serverSocket.setSoTimeout(socketTimeOut);
-            dataSocket = serverSocket.accept();
+            dataSocket = channel.accept(socketTimeOut);
             is = dataSocket.getInputStream();
             os = dataSocket.getOutputStream();
             dataTransporter = new NetDataTransporter(is, os);
-            dataTransporter.send(bytes);
+            writePayload(dataTransporter, payload);
             return new ResponsePacket(VersionControl.SUCCESS, "Ok");
         }
         catch (SocketTimeoutException e){
             return new ResponsePacket(VersionControl.CONNECTION_ERROR, "No connection was accepted");
         }
-        catch (IOException | TransporterException e){
+        catch (IOException e){
             return new ResponsePacket(VersionControl.CONNECTION_ERROR, "Unknown error occurred");
         }
         finally {
             close(is);
             close(os);
-            close(serverSocket);
+            close(channel);
             close(dataSocket);
         }
     }
 
-    private ICommandPacket processLogCommand(LogCommand command){
-        if (!"query".equals(command.getType()))
-            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Unsupported command");
-        Pair<ICommandPacket, ServerSocket> packetAndSocket;
+    // Если данные не удалось дописать (например, файл пропал из хранилища), сообщение обрывается,
+    // и клиент не примет его начало за полные данные
+    private static void writePayload(IDataTransporter transporter, PayloadWriter payload) throws IOException {
+        MessageOutputStream output = transporter.openOutputStream();
         try {
-            packetAndSocket = createSocket("notify");
+            payload.write(output);
+        } catch (IOException | RuntimeException e) {
+            output.abort();
+            throw e;
+        }
+        output.close();
+    }
+
+    // Возвращает null, если данные приняты, иначе пакет с ошибкой
+    private ICommandPacket receiveFromClient(PayloadReader payload){
+        if (inlineTransfers) {
+            try {
+                send(new SocketPacket(SocketPacket.INLINE_PORT, "write"));
+            }
+            catch (TransporterException e){
+                return new ResponsePacket(VersionControl.TRANSPORT_ERROR, "Cannot send data header");
+            }
+            try (InputStream input = manager.getDataTransporter().openInputStream()) {
+                payload.read(input);
+            }
+            catch (InvalidDeltaException e){
+                return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, e.getMessage());
+            }
+            catch (IOException e){
+                return new ResponsePacket(VersionControl.CONNECTION_ERROR, "Unknown error occurred");
+            }
+            return null;
+        }
+        Pair<ICommandPacket, DataChannel> packetAndSocket;
+        try {
+            packetAndSocket = createSocket("write");
         } catch (IOException e) {
             return new ResponsePacket(VersionControl.SOCKET_ERROR, "Server is busy, try later");
         }
+        DataChannel channel = packetAndSocket.getValue();
+        Socket dataSocket = null;
+        try {
+            send(packetAndSocket.getKey());
+        }
+        catch (TransporterException e){
+            close(channel);
+            return new ResponsePacket(VersionControl.TRANSPORT_ERROR, "Cannot send port to connect to");
+        }
+        InputStream is = null;
+        OutputStream os = null;
+        try {
+            dataSocket = channel.accept(socketTimeOut);
+            is = dataSocket.getInputStream();
+            os = dataSocket.getOutputStream();
+            dataTransporter = new NetDataTransporter(is, os);
+            try (InputStream input = dataTransporter.openInputStream()) {
+                payload.read(input);
+            }
+            return null;
+        }
+        catch (SocketTimeoutException e){
+            return new ResponsePacket(VersionControl.CONNECTION_ERROR, "No connection was accepted");
+        }
+        catch (InvalidDeltaException e){
+            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, e.getMessage());
+        }
+        catch (IOException e){
+            return new ResponsePacket(VersionControl.CONNECTION_ERROR, "Unknown error occurred");
+        }
+        finally {
+            close(is);
+            close(os);
+            close(channel);
+            close(dataSocket);
+        }
+    }
 
+    private ICommandPacket processSocketCommand(SocketCommand command){
+        if (command.getSocketPort() != SocketPacket.INLINE_PORT || !"inline".equals(command.getType()))
+            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Unsupported command");
+        inlineTransfers = true;
+        return new ResponsePacket(VersionControl.SUCCESS, "Ok");
+    }
+
+    private ICommandPacket processLogCommand(LogCommand command){
+        if ("query".equals(command.getType()))
+            return sendWholeLog();
+        int limit = (command.getLimit() <= 0) ? DEFAULT_LOG_PAGE : Math.min(command.getLimit(), MAX_LOG_PAGE);
+        CommitLog commitLog = versionControl.getCommitLog(currentRepoName);
+        CommitLog.Page page;
+        Lock lock = versionControl.getRepoLock(currentRepoName).readLock();
+        lock.lock();
         try {
-            byte[] logBytes = dataProvider.read(versionControl.getRepoLogFile(currentRepoName));
-            return sendToSocket(packetAndSocket, Zipper.zipOne(logBytes, ""));
+            switch (String.valueOf(command.getType())) {
+                case "last":
+                    page = commitLog.last(limit, command.getBefore());
+                    break;
+                case "since":
+                    if (command.getArgument() == null)
+                        return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "No version given");
+                    page = commitLog.since(command.getArgument(), limit, command.getBefore());
+                    if (page == null)
+                        return new ResponsePacket(VersionControl.NO_SUCH_VERSION_ERROR, "No such version (" + command.getArgument() + ") in log");
+                    break;
+                case "user":
+                    if (command.getArgument() == null)
+                        return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "No user given");
+                    page = commitLog.byUser(command.getArgument(), limit, command.getBefore());
+                    break;
+                case "range":
+                    page = commitLog.range(command.getFrom(), command.getTo(), limit, command.getBefore());
+                    break;
+                default:
+                    return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Unsupported command");
+            }
         } catch (IOException e) {
             return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
+        } finally {
+            lock.unlock();
+        }
+        byte[] logBytes = page.getText();
+        ICommandPacket response = sendToClient("notify", output -> Zipper.zipOne(logBytes, "", output));
+        // Номер записи для следующей страницы передается в ответе
+        if (page.getBefore() >= 0 && ((ResponsePacket) response).error == VersionControl.SUCCESS)
+            return new ResponsePacket(VersionControl.SUCCESS, ("since".equals(command.getType()) ? "Ok, more from " : "Ok, more before ") + page.getBefore());
+        return response;
+    }
+
+    // Старый запрос "query": лог целиком
+    private ICommandPacket sendWholeLog(){
+        byte[] logBytes;
+        String pathToLog = versionControl.getRepoLogFile(currentRepoName);
+        Lock lock = versionControl.getRepoLock(currentRepoName).readLock();
+        lock.lock();
+        try {
+            logBytes = dataProvider.exists(pathToLog) ? dataProvider.read(pathToLog) : new byte[0];
+        } catch (IOException e) {
+            return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
+        } finally {
+            lock.unlock();
         }
+        return sendToClient("notify", output -> Zipper.zipOne(logBytes, "", output));
     }
 
+    // Тип запроса "query" - хеши MD5, "query:<имя>" - хеши выбранного клиентом алгоритма.
+    // Ответ берется из манифеста хешей версии, файлы читаются только у версий, записанных без него
     private ICommandPacket processMd5Command(Md5Command command){
-        if (!command.getType().toLowerCase().equals("query"))
+        String[] typeAndHasher = command.getType().toLowerCase().split(":", 2);
+        if (!typeAndHasher[0].equals("query"))
             return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Command not allowed");
-        List<Pair<String, byte[]>> versionFiles;
+        IHasher hasher = (typeAndHasher.length == 1) ? Hashers.MD5 : Hashers.forName(typeAndHasher[1]);
+        if (hasher == null)
+            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Unsupported hash " + typeAndHasher[1]);
+        Map<String, byte[]> versionHashes;
+        Lock lock = versionControl.getRepoLock(currentRepoName).readLock();
         try {
-            versionFiles = collectVersion(currentVersion, true);
+            lock.lock();
+            try {
+                versionHashes = readStoredHashes(currentVersion, hasher);
+            } finally {
+                lock.unlock();
+            }
+            if (versionHashes == null)
+                versionHashes = computeHashes(currentVersion, hasher);
         }
         catch (IOException e){
             return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
         }
 
-        if (versionFiles == null)
-            return new Md5Packet("response", new String[0], new byte[0][]);
+        String names[] = new String[versionHashes.size()];
+        byte[][] hashes = new byte[versionHashes.size()][];
+        int i = 0;
+        for (Map.Entry<String, byte[]> entry: versionHashes.entrySet()){
+            names[i] = entry.getKey();
+            hashes[i++] = entry.getValue();
+        }
+        return new Md5Packet("response", names, hashes);
+    }
 
-        String names[] = new String[versionFiles.size()];
-        byte[][] hashes = new byte[versionFiles.size()][];
+    // null, если у версии нет сохраненных хешей этого алгоритма
+    private Map<String, byte[]> readStoredHashes(String version, IHasher hasher) throws IOException{
+        Map<String, byte[]> versionHashes = new LinkedHashMap<>();
+        if (version.isEmpty())
+            return versionHashes;
+        Map<String, String> stored;
+        if (hasher == Hashers.CONTENT_ADDRESS) {
+            stored = resolveVersion(version, true); // Хеши хранилища и есть хеши содержимого
+        } else {
+            String pathToHashes = getHashesPath(version);
+            if (pathToHashes == null || !dataProvider.exists(pathToHashes))
+                return null;
+            stored = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry: blobStore.readManifest(pathToHashes).entrySet())
+                stored.put(entry.getKey(), parseHashes(entry.getValue()).get(hasher.getName()));
+        }
+        if (stored == null)
+            return null;
+        for (Map.Entry<String, String> entry: stored.entrySet()) {
+            if (entry.getValue() == null)
+                return null;
+            versionHashes.put(entry.getKey(), Hashers.fromHex(entry.getValue()));
+        }
+        return versionHashes;
+    }
 
-        Pair<String, byte[]> pair;
-        for (int i = 0; i < versionFiles.size(); i++){
-            pair = versionFiles.get(i);
-            names[i] = pair.getKey();
-            hashes[i] = Md5Hash.getMd5Hash(pair.getValue());
+    private Map<String, byte[]> computeHashes(String version, IHasher hasher) throws IOException{
+        List<FileEntry> versionFiles;
+        Lock lock = versionControl.getRepoLock(currentRepoName).readLock();
+        lock.lock();
+        try {
+            versionFiles = collectEntries(version, true);
         }
-        return new Md5Packet("response", names, hashes);
+        finally {
+            lock.unlock();
+        }
+        Map<String, byte[]> versionHashes = new LinkedHashMap<>();
+        if (versionFiles != null) {
+            for (FileEntry entry: versionFiles)
+                versionHashes.put(entry.getName(), hasher.hash(entry)); // Содержимое читается из хранилища потоком
+        }
+        return versionHashes;
+    }
+
+    // Хеши одного файла в манифесте хешей: "<алгоритм>:<hex>,<алгоритм>:<hex>"
+    private static String formatHashes(FileEntry entry) throws IOException{
+        byte[][] hashes = new byte[STORED_HASHERS.length][];
+        for (int i = 0; i < STORED_HASHERS.length; i++)
+            hashes[i] = STORED_HASHERS[i].hash(entry);
+        return formatHashes(hashes);
+    }
+
+    private static String formatHashes(byte[][] hashes){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STORED_HASHERS.length; i++) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(STORED_HASHERS[i].getName()).append(':').append(Hashers.toHex(hashes[i]));
+        }
+        return sb.toString();
+    }
+
+    // Считает хеши для манифеста хешей по мере записи, не закрывает поток под собой
+    private static class HashingOutputStream extends FilterOutputStream {
+        private final IHashState[] states = new IHashState[STORED_HASHERS.length];
+
+        HashingOutputStream(OutputStream output){
+            super(output);
+            for (int i = 0; i < states.length; i++)
+                states[i] = STORED_HASHERS[i].start();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            for (IHashState state: states)
+                state.update(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        @Override
+        public void close() { }
+
+        String formatHashes(){
+            byte[][] hashes = new byte[states.length][];
+            for (int i = 0; i < states.length; i++)
+                hashes[i] = states[i].finish();
+            return Repo.formatHashes(hashes);
+        }
+    }
+
+    private static Map<String, String> parseHashes(String hashes){
+        Map<String, String> hasherHashMap = new HashMap<>();
+        for (String hash: hashes.split(",")) {
+            String[] nameAndHex = hash.split(":", 2);
+            if (nameAndHex.length == 2)
+                hasherHashMap.put(nameAndHex[0], nameAndHex[1]);
+        }
+        return hasherHashMap;
+    }
+
+    // Подписи блоков прежних версий файлов, по ним клиент передает только изменения
+    private ICommandPacket processSignatureCommand(SignatureCommand command){
+        if (!"query".equals(command.getType()) || command.getNames() == null)
+            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Command not allowed");
+        String[] names = command.getNames();
+        byte[][] signatures = new byte[names.length][];
+        Map<String, String> versionIndex;
+        Lock lock = versionControl.getRepoLock(currentRepoName).readLock();
+        lock.lock();
+        try {
+            versionIndex = resolveVersion(currentVersion, true);
+        }
+        catch (IOException e){
+            return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
+        }
+        finally {
+            lock.unlock();
+        }
+        try {
+            for (int i = 0; i < names.length; i++) {
+                String hash = (versionIndex == null) ? null : versionIndex.get(names[i]);
+                if (hash == null) {
+                    signatures[i] = new byte[0];
+                    continue;
+                }
+                try (SeekableByteChannel base = blobStore.openChannel(hash)) {
+                    signatures[i] = RollingDelta.signature(base);
+                }
+            }
+        }
+        catch (IOException e){
+            return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
+        }
+        return new SignaturePacket("response", names, signatures);
     }
 
-    private ICommandPacket processCreateCommand(ICommand command){
-        versionControl.createRepo(((CreateCommand) command).getToCreate());
+    private ICommandPacket processCreateCommand(CreateCommand command){
+        if (command.getToCreate().startsWith(".")) // Имена служебных файлов и хранилища начинаются с точки
+            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Reserved repo name");
+        try {
+            if (!versionControl.createRepo(command.getToCreate()))
+                return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Repo " + command.getToCreate() + " already exists");
+        } catch (IOException e) {
+            return new ResponsePacket(VersionControl.WRITE_ERROR, "Can not save repo");
+        }
         return new ResponsePacket(VersionControl.SUCCESS, "Ok");
     }
 
@@ -237,58 +567,131 @@ public class Repo implements ICommandProcessor {
         return processRevertCommand(lastVersion, true);
     }
 
+    private ICommandPacket processRevertCommand(RevertCommand command){
+        IHasher hasher = (command.getHasher() == null) ? null : Hashers.forName(command.getHasher());
+        if (!command.isHard() || command.getNames() == null || hasher == null)
+            return processRevertCommand(command.getVersion(), command.isHard());
+        return processIncrementalRevert(resolveTarget(command.getVersion()), command.getNames(), command.getHashes(), hasher);
+    }
+
+    // Пустая версия - последняя в репозитории: update забирает и чужие коммиты
+    private String resolveTarget(String version){
+        if (!version.isEmpty())
+            return version;
+        lastVersion = versionControl.getLastVersion(currentRepoName);
+        return lastVersion;
+    }
+
     private ICommandPacket processRevertCommand(String version, boolean hard){
-        if (version.isEmpty())
-            version = lastVersion;
-        List<Pair<String, byte[]>> filesToSend;
+        version = resolveTarget(version);
+        List<FileEntry> filesToSend;
+        Lock lock = versionControl.getRepoLock(currentRepoName).readLock();
+        lock.lock(); // Только на время чтения версии, передача клиенту идет без блокировки
         try {
-            filesToSend = collectVersion(version, hard);
+            filesToSend = collectEntries(version, hard);
             if (filesToSend == null)
                 return new ResponsePacket(VersionControl.NO_SUCH_VERSION_ERROR, "No such version (" + version + ") is found");
         }
         catch (IOException e){
             return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
         }
-        Pair<ICommandPacket, ServerSocket> packetAndSocket;
-        try {
-            packetAndSocket = createSocket("read");
-        } catch (IOException e) {
-            return new ResponsePacket(VersionControl.SOCKET_ERROR, "Server is busy, try later");
+        finally {
+            lock.unlock();
         }
+        currentVersion = version;
+        return sendToClient("read", output -> ParallelZipper.zipEntries(filesToSend, output)); // Файлы читаются из хранилища по ходу передачи
+    }
 
-        String[] names = new String[filesToSend.size()];
-        byte[][] contents = new byte[filesToSend.size()][];
-        for (int i = 0; i < filesToSend.size(); i++){
-            Pair<String, byte[]> pair = filesToSend.get(i);
-            names[i] = pair.getKey();
-            contents[i] = pair.getValue();
+    // Клиент прислал хеши рабочей копии: передаются только недостающие и измененные файлы, а первой записью
+    // архива (с пустым именем) - строки "-\t<имя>" для удаления и ">\t<старое имя>\t<новое имя>" для переименования
+    private ICommandPacket processIncrementalRevert(String version, String[] names, byte[][] hashes, IHasher hasher){
+        if (hashes == null || hashes.length != names.length)
+            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Malformed working copy state");
+        Map<String, String> versionIndex;
+        Map<String, byte[]> versionHashes;
+        Lock lock = versionControl.getRepoLock(currentRepoName).readLock();
+        lock.lock();
+        try {
+            versionIndex = resolveVersion(version, true);
+            if (versionIndex == null)
+                return new ResponsePacket(VersionControl.NO_SUCH_VERSION_ERROR, "No such version (" + version + ") is found");
+            versionHashes = readStoredHashes(version, hasher);
+        }
+        catch (IOException e){
+            return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
+        }
+        finally {
+            lock.unlock();
         }
         try {
-            byte[] bytesToSend = Zipper.zipMultiple(names, contents);
-            currentVersion = version;
-            return sendToSocket(packetAndSocket, bytesToSend);
-        } catch (IOException e) {
+            if (versionHashes == null)
+                versionHashes = computeHashes(version, hasher);
+        }
+        catch (IOException e){
             return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
         }
+
+        Map<String, ByteBuffer> workingCopy = new HashMap<>();
+        for (int i = 0; i < names.length; i++)
+            workingCopy.put(names[i], ByteBuffer.wrap(hashes[i]));
+        Map<String, ByteBuffer> target = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry: versionHashes.entrySet())
+            target.put(entry.getKey(), ByteBuffer.wrap(entry.getValue()));
+        ManifestDiff diff = ManifestDiff.compute(workingCopy, target);
+
+        StringBuilder changes = new StringBuilder();
+        for (String name: diff.getDeleted())
+            changes.append("-\t").append(name).append('\n');
+        for (Map.Entry<String, String> entry: diff.getRenamed().entrySet())
+            changes.append(">\t").append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        byte[] changeList = changes.toString().getBytes(StandardCharsets.UTF_8);
+        List<FileEntry> filesToSend = new ArrayList<>();
+        filesToSend.add(new FileEntry("", changeList.length, 0, () -> new ByteArrayInputStream(changeList)));
+        for (String name: diff.getAdded())
+            filesToSend.add(blobStore.entry(name, versionIndex.get(name)));
+        for (String name: diff.getModified())
+            filesToSend.add(blobStore.entry(name, versionIndex.get(name)));
+        currentVersion = version;
+        return sendToClient("apply", output -> ParallelZipper.zipEntries(filesToSend, output));
+    }
+
+    private List<FileEntry> collectEntries(String version, boolean hard) throws IOException{
+        Map<String, String> nameHashMap = resolveVersion(version, hard);
+        if (nameHashMap == null)
+            return null;
+        List<FileEntry> entries = new ArrayList<>();
+        for (Map.Entry<String, String> entry: nameHashMap.entrySet())
+            entries.add(blobStore.entry(entry.getKey(), entry.getValue()));
+        return entries;
     }
 
-    private List<Pair<String, byte[]>> collectVersion(String version, boolean hard) throws IOException{
+    // Имя файла -> хеш его содержимого в хранилище. Файлы, не изменявшиеся в версии, ищутся в предыдущих версиях
+    private Map<String, String> resolveVersion(String version, boolean hard) throws IOException{
         String[] names = versionContent.get(version);
         if (names == null)
             return null;
-        List<Pair<String, byte[]>> contents = new ArrayList<>();
+        Map<String, String> nameHashMap = new HashMap<>();
         Set<String> collecting = new HashSet<>();
         Collections.addAll(collecting, names);
         if (collecting.isEmpty())
-            return contents;
+            return nameHashMap;
+        String pathToIndex = getIndexPath(version);
+        if (hard && pathToIndex != null && dataProvider.exists(pathToIndex)) {
+            Map<String, String> index = blobStore.readManifest(pathToIndex);
+            for (String name: names) {
+                String hash = index.get(name);
+                if (hash == null)
+                    return null;
+                nameHashMap.put(name, hash);
+            }
+            return nameHashMap;
+        }
         String currentVersion = version;
         while (!(currentVersion == null) && !currentVersion.isEmpty()){
-            List<Pair<String, byte[]>> folderContents = dataProvider.walkThrough(versionMapPaths.get(currentVersion));
-            for (Pair<String, byte[]> nameAndData: folderContents){
-                if (collecting.contains(nameAndData.getKey())){
-                    contents.add(new Pair<>(nameAndData.getKey(), nameAndData.getValue()));
-                    collecting.remove(nameAndData.getKey());
-                }
+            Map<String, String> manifest = blobStore.readManifest(versionMapPaths.get(currentVersion));
+            for (Map.Entry<String, String> entry: manifest.entrySet()){
+                if (collecting.remove(entry.getKey()))
+                    nameHashMap.put(entry.getKey(), entry.getValue());
             }
             currentVersion = prevVersionMapNames.get(currentVersion);
             if (!hard)
@@ -296,112 +699,234 @@ public class Repo implements ICommandProcessor {
         }
         if (hard) {
             if (collecting.isEmpty())
-                return contents;
+                return nameHashMap;
             else
                 return null;
         }
-        if (!contents.isEmpty())
-            return contents;
+        if (!nameHashMap.isEmpty())
+            return nameHashMap;
         return null;
     }
 
     private ICommandPacket processCommitCommand(CommitCommand command){
-        String newVersion = (lastVersion.isEmpty()) ? versionIncrement.getFirst() : versionIncrement.increment(lastVersion);
-        Pair<ICommandPacket, ServerSocket> packetAndSocket;
+        // Если с момента последней синхронизации в репозиторий уже закоммитили, отказываем до передачи данных
+        String base = lastVersion;
+        if (!base.equals(versionControl.getLastVersion(currentRepoName)))
+            return staleBaseResponse();
+        Map<String, String> received = new LinkedHashMap<>(); // Имя файла -> хеш; файлы кладутся в хранилище по одному по мере приема
+        Map<String, String> receivedHashes = new HashMap<>(); // Имя файла -> хеши для запроса хешей, считаются здесь же
+        Set<String> deltas = new HashSet<>(Arrays.asList(command.getDeltas()));
+        Map<String, String> parentIndex; // Хеши файлов родительской версии: основа дельт, переименований и индекса
         try {
-            packetAndSocket = createSocket("write");
+            parentIndex = resolveVersion(currentVersion, true);
         } catch (IOException e) {
-            return new ResponsePacket(VersionControl.SOCKET_ERROR, "Server is busy, try later");
+            return new ResponsePacket(VersionControl.UNKNOWN_ERROR, "Unknown error occurred");
         }
-        ICommandPacket socketPacket = packetAndSocket.getKey();
-        ServerSocket serverSocket = packetAndSocket.getValue();
-        Socket dataSocket = null;
-        try {
-            send(socketPacket);
+        if (parentIndex == null)
+            return new ResponsePacket(VersionControl.NO_SUCH_VERSION_ERROR, "Version " + currentVersion + " can not be read");
+        System.out.println("Getting data");
+        ICommandPacket transferError = receiveFromClient(input ->
+                Zipper.unzipEach(input, (name, content) -> {
+                    // Файл собирается сразу во временный файл хранилища, хеши считаются по ходу записи
+                    try (BlobStore.BlobOutputStream blob = blobStore.create()) {
+                        HashingOutputStream output = new HashingOutputStream(blob);
+                        if (deltas.contains(name))
+                            applyDelta(parentIndex, name, content, output);
+                        else
+                            copy(content, output);
+                        received.put(name, blob.commit());
+                        receivedHashes.put(name, output.formatHashes());
+                    }
+                }));
+        if (transferError != null)
+            return transferError;
+        // Переименованные файлы не передаются: их содержимое уже лежит в хранилище под хешем из родительской версии
+        Map<String, String> renamedOrigins = new HashMap<>(); // Новое имя -> старое
+        ICommandPacket renameError = applyRenames(command, parentIndex, received, renamedOrigins);
+        if (renameError != null)
+            return renameError;
+        // Каждый файл версии должен прийти в этом коммите или быть в родительской версии, иначе версию нельзя будет прочитать
+        for (String name: command.getFiles()) {
+            if (!received.containsKey(name) && !parentIndex.containsKey(name))
+                return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "No content was sent for " + name);
         }
-        catch (TransporterException e){
-            try {
-                serverSocket.close();
-            } catch (IOException e1) {
-                e1.printStackTrace();
-                return new ResponsePacket(VersionControl.TRANSPORT_ERROR, "Cannot send port to connect to");
-            }
-        }
-        InputStream is = null;
-        OutputStream os = null;
+
+        // Файлы версии пишутся под уникальным именем, новая версия публикуется сравнением с base
+        String newVersion = (base.isEmpty()) ? versionIncrement.getFirst() : versionIncrement.increment(base);
+        String stagingName = newVersion + "~" + stagingCounter.incrementAndGet();
+        String pathToManifest = writeToVersion(stagingName, command.getFiles(), parentIndex, received, receivedHashes, renamedOrigins);
+        if (pathToManifest == null)
+            return new ResponsePacket(VersionControl.WRITE_ERROR, "Can not save file");
+        boolean published;
         try {
-            serverSocket.setSoTimeout(socketTimeOut);
-            dataSocket = serverSocket.accept();
-            is = dataSocket.getInputStream();
-            os = dataSocket.getOutputStream();
-            dataTransporter = new NetDataTransporter(is, os);
-            System.out.println("Getting data");
-            byte[] data = dataTransporter.get();
-            List<Pair<String, byte[]>> files = Zipper.unzipMultiple(data);
-            boolean success = writeToVersion(newVersion, files);
-            ICommandPacket logPacket = null;
-            if (success) {
-                versionControl.updateLastVersion(currentRepoName, newVersion);
-                prevVersionMapNames.put(newVersion, currentVersion);
-                currentVersion = newVersion;
-                lastVersion = newVersion;
-                versionContent.put(newVersion, command.getFiles());
-
-                System.out.println("New version on server " + newVersion);
-                System.out.println("Contents:");
-                for (Map.Entry<String, String[]> entry: versionContent.entrySet()){
-                    System.out.println(entry.getKey() + ": " + Arrays.toString(entry.getValue()));
-                }
-                System.out.println(Arrays.toString(versionMapPaths.entrySet().toArray()));
-                System.out.println(Arrays.toString(prevVersionMapNames.entrySet().toArray()));
-                System.out.println("Commit succeeded");
-                logPacket = updateLog(currentVersion, command.getFiles());
-            }
-            if (success){
-                if (((ResponsePacket) logPacket).error == VersionControl.SUCCESS)
-                    return new ResponsePacket(VersionControl.SUCCESS, "Commit was pushed to " + currentVersion + " version" );
-                else
-                    return logPacket;
-            }
-            else return new ResponsePacket(VersionControl.WRITE_ERROR, "Can not save file");
+            published = versionControl.addVersion(currentRepoName, base, newVersion, pathToManifest, currentVersion, command.getFiles());
+        } catch (IOException e) {
+            // Журнал не сброшен на диск, но версия могла быть уже опубликована: тогда ее файлы удалять нельзя
+            published = pathToManifest.equals(versionControl.getVersionMapPaths(currentRepoName).get(newVersion));
         }
-        catch (SocketTimeoutException e){
-            return new ResponsePacket(VersionControl.CONNECTION_ERROR, "No connection was accepted");
+        if (!published) {
+            deleteStaged(stagingName);
+            if (!base.equals(versionControl.getLastVersion(currentRepoName)))
+                return staleBaseResponse();
+            return new ResponsePacket(VersionControl.WRITE_ERROR, "Can not save file");
         }
-        catch (IOException | TransporterException e){
-            return new ResponsePacket(VersionControl.CONNECTION_ERROR, "Unknown error occurred");
+        currentVersion = newVersion;
+        lastVersion = newVersion;
+
+        System.out.println("New version on server " + newVersion);
+        System.out.println("Contents:");
+        for (Map.Entry<String, String[]> entry: versionContent.entrySet()){
+            System.out.println(entry.getKey() + ": " + Arrays.toString(entry.getValue()));
+        }
+        System.out.println(Arrays.toString(versionMapPaths.entrySet().toArray()));
+        System.out.println(Arrays.toString(prevVersionMapNames.entrySet().toArray()));
+        System.out.println("Commit succeeded");
+
+        ICommandPacket logPacket;
+        Lock lock = versionControl.getRepoLock(currentRepoName).writeLock();
+        lock.lock();
+        try {
+            logPacket = updateLog(currentVersion, command.getFiles());
+        } finally {
+            lock.unlock();
+        }
+        if (((ResponsePacket) logPacket).error == VersionControl.SUCCESS)
+            return new ResponsePacket(VersionControl.SUCCESS, "Commit was pushed to " + currentVersion + " version" );
+        else
+            return logPacket;
+    }
+
+    // Дополняет принятые файлы переименованными; null, если переименования согласованы с родительской версией
+    private ICommandPacket applyRenames(CommitCommand command, Map<String, String> parentIndex,
+                                        Map<String, String> received, Map<String, String> renamedOrigins){
+        String[] from = command.getRenamedFrom();
+        String[] to = command.getRenamedTo();
+        if (from.length != to.length)
+            return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Malformed rename list");
+        Set<String> versionNames = new HashSet<>(Arrays.asList(command.getFiles()));
+        for (String name: command.getDeleted()) {
+            if (versionNames.contains(name))
+                return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "File " + name + " is both deleted and kept");
+        }
+        for (int i = 0; i < from.length; i++) {
+            String hash = parentIndex.get(from[i]);
+            if (hash == null || !versionNames.contains(to[i]))
+                return new ResponsePacket(VersionControl.COMMAND_NOT_ALLOWED, "Can not rename " + from[i]);
+            received.putIfAbsent(to[i], hash);
+            renamedOrigins.put(to[i], from[i]);
         }
-        finally {
-            close(is);
-            close(os);
-            close(serverSocket);
-            close(dataSocket);
+        return null;
+    }
+
+    // Файл, переданный дельтой, собирается из своей версии в родительской версии и изменений
+    private void applyDelta(Map<String, String> baseIndex, String name, InputStream delta, OutputStream output) throws IOException{
+        String hash = baseIndex.get(name);
+        if (hash == null)
+            throw new InvalidDeltaException("No base version for delta of " + name);
+        try (SeekableByteChannel base = blobStore.openChannel(hash)) {
+            RollingDelta.apply(base, delta, output);
         }
     }
 
-    private boolean writeToVersion(String version, List<Pair<String, byte[]>> files){
-        String pathToVersion = dataProvider.resolve(dataProvider.getOrigin(), version);
-        versionMapPaths.put(version, pathToVersion);
-        dataProvider.clearDirectory(pathToVersion);
-        dataProvider.setCurrentRoot(pathToVersion);
-        for (Pair<String, byte[]> nameAndData: files){
-            try {
-                dataProvider.write(nameAndData.getKey(), nameAndData.getValue());
-            } catch (IOException e) {
-                return false;
-            }
+    private ICommandPacket staleBaseResponse(){
+        return new ResponsePacket(VersionControl.STALE_BASE_ERROR,
+                "Repo was updated to " + versionControl.getLastVersion(currentRepoName) + ", update first");
+    }
+
+    // Возвращает путь к манифесту записанной версии или null при ошибке
+    private String writeToVersion(String stagingName, String[] versionNames, Map<String, String> parentIndex, Map<String, String> nameHashMap,
+                                  Map<String, String> changedHashes, Map<String, String> renamedOrigins){
+        String pathToManifest = dataProvider.resolve(dataProvider.getOrigin(), stagingName + VersionControl.MANIFEST_EXTENSION);
+        try {
+            Map<String, String> index = buildIndex(versionNames, parentIndex, nameHashMap);
+            blobStore.writeManifest(pathToManifest, nameHashMap);
+            blobStore.writeManifest(toIndexPath(pathToManifest), index);
+            blobStore.writeManifest(toHashesPath(pathToManifest), buildHashes(index, changedHashes, renamedOrigins));
+        } catch (IOException e) {
+            return null;
         }
-        return true;
+        return pathToManifest;
+    }
+
+    private void deleteStaged(String stagingName){
+        String pathToManifest = dataProvider.resolve(dataProvider.getOrigin(), stagingName + VersionControl.MANIFEST_EXTENSION);
+        try {
+            dataProvider.delete(pathToManifest);
+            dataProvider.delete(toIndexPath(pathToManifest));
+            dataProvider.delete(toHashesPath(pathToManifest));
+        } catch (IOException e) { }
+    }
+
+    // Полный индекс версии: для каждого файла хеш из этого коммита или из индекса родительской версии.
+    // Неполный индекс не пишется: версию без хеша хотя бы одного файла нельзя прочитать
+    private static Map<String, String> buildIndex(String[] versionNames, Map<String, String> parentIndex,
+                                                  Map<String, String> changed) throws IOException{
+        Map<String, String> index = new LinkedHashMap<>();
+        for (String name: versionNames) {
+            String hash = changed.get(name);
+            if (hash == null)
+                hash = parentIndex.get(name);
+            if (hash == null)
+                throw new IOException("No content for " + name);
+            index.put(name, hash);
+        }
+        return index;
+    }
+
+    // Хеши файлов версии: новые посчитаны при приеме, остальные берутся из манифеста хешей родительской версии.
+    // Если у родителя его нет (версия записана раньше), недостающие хеши один раз считаются по хранилищу
+    private Map<String, String> buildHashes(Map<String, String> index, Map<String, String> changedHashes,
+                                            Map<String, String> renamedOrigins) throws IOException{
+        Map<String, String> parentHashes = new HashMap<>();
+        String pathToParentHashes = getHashesPath(currentVersion);
+        if (pathToParentHashes != null && dataProvider.exists(pathToParentHashes))
+            parentHashes = blobStore.readManifest(pathToParentHashes);
+        Map<String, String> hashes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry: index.entrySet()) {
+            String name = entry.getKey();
+            String fileHashes = changedHashes.get(name);
+            if (fileHashes == null)
+                fileHashes = parentHashes.get(renamedOrigins.getOrDefault(name, name));
+            if (fileHashes == null)
+                fileHashes = formatHashes(blobStore.entry(name, entry.getValue()));
+            hashes.put(name, fileHashes);
+        }
+        return hashes;
+    }
+
+    // Индекс лежит рядом с манифестом версии и отличается только расширением
+    private String getIndexPath(String version){
+        String pathToManifest = versionMapPaths.get(version);
+        return (pathToManifest == null) ? null : toIndexPath(pathToManifest);
+    }
+
+    private static String toIndexPath(String pathToManifest){
+        return pathToManifest.substring(0, pathToManifest.length() - VersionControl.MANIFEST_EXTENSION.length())
+                + VersionControl.INDEX_EXTENSION;
+    }
+
+    private String getHashesPath(String version){
+        String pathToManifest = versionMapPaths.get(version);
+        return (pathToManifest == null) ? null : toHashesPath(pathToManifest);
+    }
+
+    private static String toHashesPath(String pathToManifest){
+        return pathToManifest.substring(0, pathToManifest.length() - VersionControl.MANIFEST_EXTENSION.length())
+                + VersionControl.HASHES_EXTENSION;
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException{
+        byte[] buffer = new byte[64 * 1024];
+        int len;
+        while ((len = input.read(buffer)) > 0)
+            output.write(buffer, 0, len);
     }
 
-    private Pair<ICommandPacket, ServerSocket> createSocket(String type) throws IOException {
-        ICommandPacket response;
-        ServerSocket dataSocket;
-        if (socketPort == -1)
-            throw new IOException("No port available");
-        dataSocket = new ServerSocket(socketPort);
-        response = new SocketPacket(dataSocket.getLocalPort(), type);
-        return new Pair<>(response, dataSocket);
+    // Под каждую передачу открывается свой канал, так что параллельные передачи одного репозитория не мешают друг другу
+    private Pair<ICommandPacket, DataChannel> createSocket(String type) throws IOException {
+        DataChannel channel = versionControl.getDataChannels().open(currentRepoName);
+        ICommandPacket response = new SocketPacket(channel.getPort(), type);
+        return new Pair<>(response, channel);
     }
 
     @Override
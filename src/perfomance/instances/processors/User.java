@@ -1,36 +1,50 @@
 package perfomance.instances.processors;
 
-import javafx.util.Pair;
 import managment.Manager;
+import perfomance.CommandDispatcher;
 import perfomance.ICommand;
 import perfomance.ICommandPacket;
 import perfomance.ICommandProcessor;
 import perfomance.instances.commands.Md5Command;
 import perfomance.instances.commands.ResponseCommand;
+import perfomance.instances.commands.SignatureCommand;
 import perfomance.instances.commands.SocketCommand;
 import perfomance.instances.packets.*;
-import utils.Md5Hash;
+import utils.ManifestDiff;
+import utils.ParallelZipper;
+import utils.RollingDelta;
 import utils.Zipper;
+import utils.hash.Hashers;
+import utils.hash.IHasher;
+import utils.hash.StatCache;
+import utils.data.FileEntry;
 import utils.data.IDataProvider;
 import utils.data.IDataTransporter;
+import utils.data.MessageOutputStream;
 import utils.data.NetDataTransporter;
 import utils.data.TransporterException;
+import web_server.VersionControl;
 
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
 
 
 public class User implements ICommandProcessor {
     private final Manager manager;
     private IDataProvider dataProvider;
     private IDataTransporter dataTransporter;
-    private byte[] tempBytesToSend;
+    private List<FileEntry> tempFilesToSend; // Читаются с диска только во время отправки
     private boolean tempHard;
     private InetAddress address;
     private final PrintStream printStream;
+    private final CommandDispatcher dispatcher;
+    private IHasher changeHasher; // Хеш для сравнения файлов с версией на сервере
 
     public User(Manager manager, IDataProvider dataProvider, InetAddress address, PrintStream printStream) {
         this.manager = manager;
@@ -38,31 +52,55 @@ public class User implements ICommandProcessor {
         this.dataTransporter = null;
         this.address = address;
         this.printStream = printStream;
+        this.changeHasher = Hashers.CHANGE_DETECTION;
+        this.dispatcher = new CommandDispatcher()
+                .register(ResponseCommand.class, this::processResponseCommand)
+                .register(SocketCommand.class, this::processSocketCommand);
     }
 
     @Override
     public ICommandPacket process(ICommand command) {
-        if (command instanceof EmptyPacket)
-            return null;
-        else if (command instanceof ResponseCommand)
-            System.out.println(((ResponseCommand) command).getError() + ": " + ((ResponseCommand) command).getErrorInfo());
-        else if (command instanceof SocketCommand){
-            int port = ((SocketCommand) command).getSocketPort();
-            String type = ((SocketCommand) command).getType();
+        return dispatcher.dispatch(command);
+    }
+
+    private ICommandPacket processResponseCommand(ResponseCommand command){
+        System.out.println(command.getError() + ": " + command.getErrorInfo());
+        // Сервер ответил без передачи данных (например, отклонил коммит), отложенные файлы больше не нужны
+        tempFilesToSend = null;
+        tempHard = false;
+        return null;
+    }
+
+    private ICommandPacket processSocketCommand(SocketCommand command){
+        int port = command.getSocketPort();
+        String type = command.getType();
+        if (port == SocketPacket.INLINE_PORT)
+            operate(manager.getDataTransporter(), type);
+        else {
             Socket socket = createSocket(port);
             if (socket == null)
                 return null;
             operateWithSocket(socket, type);
-
-            try {
-                ICommand responseCommand = get();
-                process(responseCommand);
-            } catch (TransporterException e) { }
         }
 
+        try {
+            ICommand responseCommand = get();
+            process(responseCommand);
+        } catch (TransporterException e) { }
         return null;
     }
 
+    // Просит сервер передавать данные по управляющему соединению вместо отдельного сокета
+    public boolean requestInlineTransfers(){
+        try {
+            send(new SocketPacket(SocketPacket.INLINE_PORT, "inline"));
+            ICommand response = get();
+            return response instanceof ResponseCommand && ((ResponseCommand) response).getError() == VersionControl.SUCCESS;
+        } catch (TransporterException e) {
+            return false;
+        }
+    }
+
     private Socket createSocket(int port){
         try {
             return new Socket(address, port);
@@ -77,42 +115,93 @@ public class User implements ICommandProcessor {
             is = socket.getInputStream();
             os = socket.getOutputStream();
             dataTransporter = new NetDataTransporter(is, os);
+            operate(dataTransporter, command);
+        }
+        catch (IOException e){ }
+        finally {
+            close(is);
+            close(os);
+            close(socket);
+        }
+    }
+
+    private void operate(IDataTransporter transporter, String command){
+        try {
             if ("write".equals(command)) {
                 System.out.println("Sending data");
-                if (tempBytesToSend != null)
-                    dataTransporter.send(tempBytesToSend);
-                tempBytesToSend = null;
+                // Сообщение отправляется всегда, даже пустое: сервер ждет его перед ответом.
+                // Если файл не удалось прочитать, сообщение обрывается, и сервер не примет неполный коммит
+                MessageOutputStream output = transporter.openOutputStream();
+                try {
+                    if (tempFilesToSend != null)
+                        ParallelZipper.zipEntries(tempFilesToSend, output);
+                } catch (IOException | RuntimeException e) {
+                    output.abort();
+                    throw e;
+                }
+                output.close();
+                tempFilesToSend = null;
                 printStream.println("Sending files...");
             } else if ("read".equals(command)) {
-                byte[] dataBytes = dataTransporter.get();
                 printStream.println("Getting files");
-                writeBytes(dataBytes);
+                try (InputStream data = transporter.openInputStream()) {
+                    writeFiles(data);
+                }
+            } else if ("apply".equals(command)) {
+                printStream.println("Getting changes");
+                try (InputStream data = transporter.openInputStream()) {
+                    applyChanges(data);
+                }
             }
             else if ("notify".equals(command)){
-                byte[] bytes = dataTransporter.get();
-                printStream.print(new String(Zipper.unzipOne(bytes), "UTF-8"));
+                try (InputStream data = transporter.openInputStream()) {
+                    printStream.print(new String(Zipper.unzipOne(data), "UTF-8"));
+                }
             }
         }
-        catch (TransporterException | IOException e){ }
+        catch (IOException e){ }
         finally {
-            close(is);
-            close(os);
-            close(socket);
             tempHard = false;
-            tempBytesToSend = null;
+            tempFilesToSend = null;
         }
     }
 
-    private void writeBytes(byte[] bytes){
-        try {
-            printStream.println("Saving files");
-            if (tempHard)
-                dataProvider.clearDirectory(dataProvider.getOrigin());
-            List<Pair<String, byte[]>> files = Zipper.unzipMultiple(bytes);
-            for (Pair<String, byte[]> pair: files){
-                dataProvider.write(pair.getKey(), pair.getValue());
+    // Файлы пишутся на диск прямо из потока, архив целиком в памяти не собирается
+    private void writeFiles(InputStream data) throws IOException {
+        printStream.println("Saving files");
+        if (tempHard)
+            dataProvider.clearDirectory(dataProvider.getOrigin());
+        ParallelZipper.unzipTo(data, dataProvider);
+    }
+
+    // Рабочая копия меняется на месте: сначала удаления и переименования из первой записи, затем
+    // новые и измененные файлы. Остальные файлы не трогаются
+    private void applyChanges(InputStream data) throws IOException {
+        printStream.println("Saving files");
+        byte[] buffer = new byte[64 * 1024];
+        Zipper.unzipEach(data, (name, content) -> {
+            if (name.isEmpty()) {
+                applyChangeList(content);
+                return;
             }
-        } catch (IOException e) { }
+            try (OutputStream output = dataProvider.openWrite(name)) {
+                int len;
+                while ((len = content.read(buffer)) > 0)
+                    output.write(buffer, 0, len);
+            }
+        });
+    }
+
+    private void applyChangeList(InputStream content) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t");
+            if (fields.length == 2 && fields[0].equals("-"))
+                dataProvider.delete(fields[1]);
+            else if (fields.length == 3 && fields[0].equals(">"))
+                dataProvider.move(fields[1], fields[2]);
+        }
     }
 
     private boolean isValid(String[] command){
@@ -125,8 +214,16 @@ public class User implements ICommandProcessor {
                 } else if (command.length == 4) {
                     return !command[1].isEmpty() && !command[2].isEmpty() && ".".equals(command[3]);
                 }
-            } else if ("update".equals(command[0]) || "commit".equals(command[0]) || "log".equals(command[0])) {
+            } else if ("update".equals(command[0]) || "commit".equals(command[0])) {
                 return command.length == 1;
+            } else if ("log".equals(command[0])) {
+                if (command.length == 1)
+                    return true;
+                if (command.length == 3 && "last".equals(command[1]))
+                    return command[2].matches("\\d{1,9}");
+                if (command.length == 3)
+                    return "since".equals(command[1]) || "user".equals(command[1]);
+                return command.length == 4 && "range".equals(command[1]) && parseDay(command[2]) != null && parseDay(command[3]) != null;
             } else if ("revert".equals(command[0])) {
                 if (command.length == 2) {
                     return !command[1].isEmpty();
@@ -187,95 +284,137 @@ public class User implements ICommandProcessor {
     }
 
     private ICommandPacket sendCommitPacket(String[] command){
-        ICommandPacket md5Packet = new Md5Packet("query", null, null);
-        String[] names = null;
-        byte[][] contents = null;
-        try {
-            send(md5Packet);
-            ICommand respCommand = get();
-            if (respCommand instanceof ResponseCommand)
-                System.out.println(((ResponseCommand) respCommand).getError() + ": " +((ResponseCommand) respCommand).getErrorInfo());
-            else if (respCommand instanceof Md5Command){
-                names = ((Md5Command) respCommand).getNames();
-                contents = ((Md5Command) respCommand).getMd5Bytes();
-            }
-        } catch (TransporterException e) {
-            return null;
+        IHasher hasher = changeHasher;
+        Md5Command serverHashes = queryHashes(hasher);
+        if (serverHashes == null && hasher != Hashers.MD5) {
+            hasher = Hashers.MD5; // Старый сервер знает только MD5
+            serverHashes = queryHashes(hasher);
         }
-        List<Pair<String, byte[]>> dirContents;
+        if (serverHashes == null)
+            return null;
+        Map<String, ByteBuffer> serverManifest = new HashMap<>();
+        for (int i = 0; i < serverHashes.getNames().length; i++)
+            serverManifest.put(serverHashes.getNames()[i], ByteBuffer.wrap(serverHashes.getMd5Bytes()[i]));
+        List<FileEntry> dirContents;
+        Map<String, ByteBuffer> localManifest;
         try {
-            dirContents = dataProvider.walkThrough(dataProvider.getCurrentRoot());
+            dirContents = listWorkingFiles();
+            localManifest = getHashes(dirContents, hasher);
         } catch (IOException e) {
             return null;
         }
-        if (isSameVersions(names, contents, dirContents))
+        ManifestDiff diff = ManifestDiff.compute(serverManifest, localManifest);
+        if (diff.isEmpty())
             return null;
 
-        Pair<String[], byte[][]> filesToCommit = getFilesToCommit(names, contents, dirContents);
-
-        if (filesToCommit.getKey().length == 0 || filesToCommit.getValue().length == 0)
-            tempBytesToSend = new byte[0];
-        try {
-            tempBytesToSend = Zipper.zipMultiple(filesToCommit.getKey(), filesToCommit.getValue());
-        } catch (IOException e) {
-            return null;
+        // Передаются только новые и измененные файлы, об удалениях и переименованиях сервер узнает из пакета
+        Set<String> changed = new HashSet<>(diff.getAdded());
+        changed.addAll(diff.getModified());
+        List<FileEntry> filesToCommit = new ArrayList<>();
+        for (FileEntry entry: dirContents) {
+            if (changed.contains(entry.getName()))
+                filesToCommit.add(entry);
         }
+
+        List<String> deltas = new ArrayList<>();
+        tempFilesToSend = encodeDeltas(filesToCommit, new HashSet<>(diff.getModified()), deltas);
         String[] dirContentsArray = new String[dirContents.size()];
         for (int i = 0; i < dirContents.size(); i++)
-            dirContentsArray[i] = dirContents.get(i).getKey();
-        return new CommitPacket(dirContentsArray);
+            dirContentsArray[i] = dirContents.get(i).getName();
+        Map<String, String> renamed = diff.getRenamed();
+        return new CommitPacket(dirContentsArray, diff.getDeleted().toArray(new String[0]),
+                renamed.keySet().toArray(new String[0]), renamed.values().toArray(new String[0]), deltas.toArray(new String[0]));
     }
 
-    private boolean isSameVersions(String[] oldNames, byte[][] oldContents, List<Pair<String, byte[]>> dirContents){
-        Map<String, byte[]> contentMap = dirContents.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue));
-        if (oldContents.length != dirContents.size())
-            return false;
-        byte[] tempContent;
-        for (int i = 0; i < oldContents.length; i++){
-            tempContent = contentMap.get(oldNames[i]);
-            if (tempContent == null || !Arrays.equals(Md5Hash.getMd5Hash(tempContent), oldContents[i])){
-                return false;
+    // Большие измененные файлы заменяются дельтой к их версии на сервере, если она выходит заметно меньше файла
+    private List<FileEntry> encodeDeltas(List<FileEntry> files, Set<String> modified, List<String> deltaNames){
+        List<String> candidates = new ArrayList<>();
+        for (FileEntry entry: files) {
+            if (modified.contains(entry.getName()) && entry.getFile() != null && entry.getSize() >= RollingDelta.MIN_FILE_SIZE)
+                candidates.add(entry.getName());
+        }
+        if (candidates.isEmpty())
+            return files;
+        Map<String, byte[]> signatures = querySignatures(candidates);
+        if (signatures == null)
+            return files;
+        List<FileEntry> result = new ArrayList<>(files.size());
+        for (FileEntry entry: files) {
+            byte[] signature = signatures.get(entry.getName());
+            byte[] delta = null;
+            if (signature != null && signature.length > 0) {
+                try {
+                    delta = RollingDelta.encode(signature, entry);
+                } catch (IOException e) { }
+            }
+            if (delta == null) {
+                result.add(entry);
+                continue;
             }
+            byte[] content = delta;
+            deltaNames.add(entry.getName());
+            result.add(new FileEntry(entry.getName(), content.length, entry.getLastModified(), () -> new ByteArrayInputStream(content)));
         }
-        return true;
+        return result;
     }
 
-    private Pair<String[], byte[][]> getFilesToCommit(String[] md5Names, byte[][] md5Contents, List<Pair<String, byte[]>> dirContents){
-        List<String> names = new ArrayList<>();
-        List<byte[]> data = new ArrayList<>();
-        boolean[] removed = new boolean[dirContents.size()];
-        Map<String, byte[]> hashesMap = new HashMap<>();
-        for (Pair<String, byte[]> pair: dirContents)
-            hashesMap.put(pair.getKey(), Md5Hash.getMd5Hash(pair.getValue()));
-
-        for (int j = 0; j < dirContents.size(); j++){
-            Pair<String, byte[]> pair = dirContents.get(j);
-            for (int i = 0; i < md5Names.length; i++){
-                if (pair.getKey().equals(md5Names[i]))
-                    if (Arrays.equals(hashesMap.get(pair.getKey()), md5Contents[i])){
-                        removed[j] = true;
-                        break;
-                    }
-                    else
-                        break;
-            }
+    // Подписи блоков серверных версий файлов; null, если сервер их не поддерживает
+    private Map<String, byte[]> querySignatures(List<String> names){
+        try {
+            send(new SignaturePacket("query", names.toArray(new String[0]), null));
+            ICommand respCommand = get();
+            if (!(respCommand instanceof SignatureCommand))
+                return null;
+            SignatureCommand signatureCommand = (SignatureCommand) respCommand;
+            Map<String, byte[]> signatures = new HashMap<>();
+            for (int i = 0; i < signatureCommand.getNames().length; i++)
+                signatures.put(signatureCommand.getNames()[i], signatureCommand.getSignatures()[i]);
+            return signatures;
+        } catch (TransporterException e) {
+            return null;
         }
-        for (int j = 0; j < dirContents.size(); j++) {
-            if (removed[j])
-                continue;
+    }
 
-            Pair<String, byte[]> pair = dirContents.get(j);
-            names.add(pair.getKey());
-            data.add(pair.getValue());
-        }
-        String[] namesArray = new String[names.size()];
-        byte[][] bytesArray = new byte[data.size()][];
-        return new Pair<>(names.toArray(namesArray), data.toArray(bytesArray));
+    // Хеши файлов текущей версии на сервере; null, если сервер не ответил хешами
+    private Md5Command queryHashes(IHasher hasher){
+        String type = (hasher == Hashers.MD5) ? "query" : "query:" + hasher.getName();
+        try {
+            send(new Md5Packet(type, null, null));
+            ICommand respCommand = get();
+            if (respCommand instanceof Md5Command)
+                return (Md5Command) respCommand;
+            if (respCommand instanceof ResponseCommand && hasher == Hashers.MD5)
+                System.out.println(((ResponseCommand) respCommand).getError() + ": " +((ResponseCommand) respCommand).getErrorInfo());
+        } catch (TransporterException e) { }
+        return null;
+    }
+
+    private List<FileEntry> listWorkingFiles() throws IOException{
+        List<FileEntry> dirContents = dataProvider.listFiles(dataProvider.getCurrentRoot());
+        dirContents.removeIf(entry -> entry.getName().equals(StatCache.FILE_NAME));
+        return dirContents;
+    }
+
+    // Читаются только файлы, у которых размер или время изменения не совпали с индексом рабочей копии
+    private Map<String, ByteBuffer> getHashes(List<FileEntry> dirContents, IHasher hasher) throws IOException{
+        String pathToCache = dataProvider.resolve(dataProvider.getCurrentRoot(), StatCache.FILE_NAME);
+        StatCache statCache = StatCache.load(dataProvider, pathToCache, hasher);
+        Map<String, ByteBuffer> hashesMap = new HashMap<>();
+        for (FileEntry entry: dirContents)
+            hashesMap.put(entry.getName(), ByteBuffer.wrap(statCache.hash(entry)));
+        try {
+            statCache.save(dataProvider, pathToCache);
+        } catch (IOException e) { } // Без индекса следующий коммит просто перечитает файлы
+        return hashesMap;
+    }
+
+    public void setChangeHasher(IHasher changeHasher) {
+        this.changeHasher = changeHasher;
     }
 
     private ICommandPacket sendUpdatePacket(String[] command){
         tempHard = true;
-        return new RevertPacket("", true);
+        return createHardRevertPacket("");
     }
 
     private ICommandPacket sendRevertPacket(String[] command){
@@ -284,11 +423,50 @@ public class User implements ICommandProcessor {
             if (command[2].equals("-hard")) {
                 tempHard = true;
             }
-        return new RevertPacket(version, tempHard);
+        return tempHard ? createHardRevertPacket(version) : new RevertPacket(version, false);
+    }
+
+    // С хешами рабочей копии сервер пришлет только отличия от версии, а не всю версию
+    private ICommandPacket createHardRevertPacket(String version){
+        Map<String, ByteBuffer> localManifest;
+        try {
+            localManifest = getHashes(listWorkingFiles(), changeHasher);
+        } catch (IOException e) {
+            return new RevertPacket(version, true);
+        }
+        String[] names = new String[localManifest.size()];
+        byte[][] hashes = new byte[localManifest.size()][];
+        int i = 0;
+        for (Map.Entry<String, ByteBuffer> entry: localManifest.entrySet()) {
+            names[i] = entry.getKey();
+            hashes[i++] = entry.getValue().array();
+        }
+        return new RevertPacket(version, true, changeHasher.getName(), names, hashes);
     }
 
+    // log | log last <N> | log since <версия> | log user <пользователь> | log range <дд-ММ-гггг> <дд-ММ-гггг>
     private ICommandPacket sendLogPacket(String[] command){
-        return new LogPacket("query");
+        if (command.length == 1)
+            return new LogPacket("query");
+        switch (command[1]) {
+            case "last":
+                return new LogPacket("last", null, 0, 0, Integer.parseInt(command[2]), -1);
+            case "range":
+                long dayLength = 24 * 60 * 60 * 1000L;
+                return new LogPacket("range", null, parseDay(command[2]).getTime(), parseDay(command[3]).getTime() + dayLength, 0, -1);
+            default:
+                return new LogPacket(command[1], command[2], 0, 0, 0, -1);
+        }
+    }
+
+    private static Date parseDay(String day){
+        SimpleDateFormat format = new SimpleDateFormat("dd-MM-yyyy");
+        format.setLenient(false);
+        try {
+            return format.parse(day);
+        } catch (ParseException e) {
+            return null;
+        }
     }
 
     private ICommandPacket sendEncryptPacket(String[] command){
@@ -0,0 +1,42 @@
+package thread_dispatcher;
+
+public class PoolStats {
+    private final String name;
+    private final int active;
+    private final int queued;
+    private final long completed;
+    private final long rejected;
+
+    public PoolStats(String name, int active, int queued, long completed, long rejected){
+        this.name = name;
+        this.active = active;
+        this.queued = queued;
+        this.completed = completed;
+        this.rejected = rejected;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": active " + active + ", queued " + queued + ", completed " + completed + ", rejected " + rejected;
+    }
+}
@@ -1,35 +1,91 @@
 package thread_dispatcher;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ThreadDispatcher {
+    public static final String DEFAULT_POOL = "default";
+    public static final String SESSION_POOL = "sessions";
+    public static final String WORKER_POOL = "workers";
+    public static int DEFAULT_POOL_SIZE;
+    public static int DEFAULT_QUEUE_CAPACITY;
+    public static int SESSION_POOL_SIZE;
+    public static int SESSION_QUEUE_CAPACITY;
+    public static int WORKER_POOL_SIZE;
+    public static int WORKER_QUEUE_CAPACITY;
+
+    static {
+        DEFAULT_POOL_SIZE = 16;
+        DEFAULT_QUEUE_CAPACITY = 256;
+        SESSION_POOL_SIZE = 256;
+        SESSION_QUEUE_CAPACITY = 0; // Сессия в очереди держит принятый сокет, а клиент ждет без ответа
+        WORKER_POOL_SIZE = 64;
+        WORKER_QUEUE_CAPACITY = 4096;
+    }
+
+    // Создается после static-блока, иначе пулы получат нулевые размеры
     private static ThreadDispatcher ourInstance = new ThreadDispatcher();
 
     public static ThreadDispatcher getInstance() {
         return ourInstance;
     }
 
-    private final Set<ThreadedTask> tasks;
+    private final Map<String, WorkerPool> pools;
+    private final ThreadMonitor monitor;
 
     private ThreadDispatcher() {
-        this.tasks = new HashSet<>();
-        add(new ThreadMonitor(50, "D:\\IT\\ООП\\практика\\Tests\\testDispatcher", tasks));
+        this.pools = new ConcurrentHashMap<>();
+        this.monitor = new ThreadMonitor(this);
+        createPool(DEFAULT_POOL, DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY, WorkerPool.RejectionPolicy.CALLER_RUNS);
+        createPool(SESSION_POOL, SESSION_POOL_SIZE, SESSION_QUEUE_CAPACITY, WorkerPool.RejectionPolicy.REJECT);
+        createPool(WORKER_POOL, WORKER_POOL_SIZE, WORKER_QUEUE_CAPACITY, WorkerPool.RejectionPolicy.REJECT);
+    }
+
+    public WorkerPool createPool(String name, int threads, int queueCapacity, WorkerPool.RejectionPolicy policy){
+        WorkerPool pool = new WorkerPool(name, threads, queueCapacity, policy);
+        WorkerPool old = pools.put(name, pool);
+        if (old != null)
+            old.shutdown();
+        return pool;
+    }
+
+    public WorkerPool getPool(String name){
+        return pools.get(name);
     }
 
-    public void add(ThreadedTask task){
-        synchronized (tasks) {
-            this.tasks.add(task);
-            new Thread(() -> {
+    public boolean add(ThreadedTask task){
+        return add(DEFAULT_POOL, task);
+    }
+
+    // false, если пул переполнен и задача не принята
+    public boolean add(String pool, ThreadedTask task){
+        return pools.get(pool).submit(() -> {
+            monitor.taskStarted(task);
+            try {
                 task.run();
-                getInstance().threadStopped(task);
-            }).start();
-        }
+            } finally {
+                monitor.taskFinished(task);
+            }
+        });
+    }
+
+    public ThreadMonitor getMonitor() {
+        return monitor;
+    }
+
+    // Для задач, работающих все время жизни сервера (например, селектор): отдельный поток вне пулов
+    public void startService(ThreadedTask task){
+        Thread thread = new Thread(task, task.getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    private void threadStopped(ThreadedTask task){
-        synchronized (tasks) {
-            this.tasks.remove(task);
-        }
+    public List<PoolStats> getStats(){
+        List<PoolStats> stats = new ArrayList<>();
+        for (WorkerPool pool: pools.values())
+            stats.add(pool.getStats());
+        return stats;
     }
 }
@@ -1,58 +1,65 @@
 package thread_dispatcher;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public class ThreadMonitor extends ThreadedTask {
-    private final int sleepTime;
-    private final Path fileToWrite;
-    private final Set<ThreadedTask> tasks;
+public class ThreadMonitor {
+    // Пассивный монитор: пулы сообщают о начале и конце задач, блокировок и фонового потока нет.
+    // Снимок строится по запросу оператора: консоль сервера по команде status пишет его в файл
+    private final ThreadDispatcher dispatcher;
+    private final Map<ThreadedTask, Long> running; // Задача -> время начала (System.nanoTime)
+    private final LongAdder started;
+    private final LongAdder finished;
+    private final LongAdder totalNanos;
+    private final AtomicLong maxNanos;
 
-    ThreadMonitor(int sleepTime, String root, Set<ThreadedTask> tasks){
-        this.tasks = tasks;
-        this.sleepTime = sleepTime;
-        this.fileToWrite = new File(root).toPath().resolve("active_threads.txt");
+    ThreadMonitor(ThreadDispatcher dispatcher){
+        this.dispatcher = dispatcher;
+        this.running = new ConcurrentHashMap<>();
+        this.started = new LongAdder();
+        this.finished = new LongAdder();
+        this.totalNanos = new LongAdder();
+        this.maxNanos = new AtomicLong();
     }
 
-    @Override
-    public void run() {
-        while (true) {
-            List<String> active;
-            synchronized (tasks) {
-                active = getActive();
-            }
-            writeActive(active);
-            try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {
-                return;
-            }
-        }
+    void taskStarted(ThreadedTask task){
+        started.increment();
+        running.put(task, System.nanoTime());
     }
 
-    private List<String> getActive(){
-        List<String> active = new ArrayList<>();
-        for (ThreadedTask task: tasks)
-            active.add(task.toString());
-        return active;
+    void taskFinished(ThreadedTask task){
+        Long start = running.remove(task);
+        finished.increment();
+        if (start == null)
+            return;
+        long duration = System.nanoTime() - start;
+        totalNanos.add(duration);
+        maxNanos.accumulateAndGet(duration, Math::max);
     }
 
-    private void writeActive(List<String> activeThreads){
-//        System.out.println("Threads:");
-//        for (String task: activeThreads) {
-//            System.out.println("\t" + task);
-//        }
-        try {
-            Files.write(fileToWrite, activeThreads, Charset.forName("UTF-8"));
-        } catch (IOException e) {
-            return;
-        }
+    public List<String> snapshot(){
+        List<String> lines = new ArrayList<>();
+        for (PoolStats stats: dispatcher.getStats())
+            lines.add(stats.toString());
+        long count = finished.sum();
+        lines.add("tasks: started " + started.sum() + ", finished " + count
+                + ", avg " + ((count == 0) ? 0 : totalNanos.sum() / count / 1000000) + " ms"
+                + ", max " + maxNanos.get() / 1000000 + " ms");
+        long now = System.nanoTime();
+        for (Map.Entry<ThreadedTask, Long> entry: running.entrySet())
+            lines.add("\t" + entry.getKey() + " running " + (now - entry.getValue()) / 1000000 + " ms");
+        return lines;
+    }
+
+    public void dump(Path file) throws IOException {
+        Files.write(file, snapshot(), StandardCharsets.UTF_8);
     }
 }
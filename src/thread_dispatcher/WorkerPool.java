@@ -0,0 +1,64 @@
+package thread_dispatcher;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WorkerPool implements Executor {
+    // Пул с ограниченным числом потоков и очередью. Если очередь заполнена, задача
+    // либо отклоняется, либо выполняется в вызывающем потоке и тем самым тормозит источник задач.
+    // Пул без очереди принимает задачу, только если есть свободный поток
+    public enum RejectionPolicy {
+        REJECT,
+        CALLER_RUNS
+    }
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected;
+
+    public WorkerPool(String name, int threads, int queueCapacity, RejectionPolicy policy){
+        this.name = name;
+        this.rejected = new AtomicLong();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = task -> new Thread(task, name + "-" + threadNumber.incrementAndGet());
+        RejectedExecutionHandler handler = (task, pool) -> {
+            rejected.incrementAndGet();
+            if (policy == RejectionPolicy.CALLER_RUNS && !pool.isShutdown())
+                task.run();
+            else
+                throw new RejectedExecutionException(name + " pool is full");
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                (queueCapacity > 0) ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(), threadFactory, handler);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    // false, если задача отклонена
+    public boolean submit(Runnable task){
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public PoolStats getStats(){
+        return new PoolStats(name, executor.getActiveCount(), executor.getQueue().size(),
+                executor.getCompletedTaskCount(), rejected.get());
+    }
+
+    public void shutdown(){
+        executor.shutdown();
+    }
+}
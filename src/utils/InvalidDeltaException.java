@@ -0,0 +1,13 @@
+package utils;
+
+import java.io.IOException;
+
+// Дельта не соответствует старой версии файла: ошибка клиента, а не передачи
+public class InvalidDeltaException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidDeltaException() { super(); }
+    public InvalidDeltaException(String message) { super(message); }
+    public InvalidDeltaException(String message, Throwable cause) { super(message, cause); }
+    public InvalidDeltaException(Throwable cause) { super(cause); }
+}
@@ -0,0 +1,62 @@
+package utils;
+
+import java.util.*;
+
+public class ManifestDiff {
+    // Разница двух манифестов "имя файла -> хеш". Хеш сравнивается через equals, поэтому byte[] нужно
+    // передавать обернутым (например, в ByteBuffer). Удаленный файл, чье содержимое появилось под новым
+    // именем, считается переименованным, а не удаленным и добавленным
+    private final List<String> added = new ArrayList<>();
+    private final List<String> modified = new ArrayList<>();
+    private final List<String> deleted = new ArrayList<>();
+    private final Map<String, String> renamed = new LinkedHashMap<>(); // Старое имя -> новое
+
+    private ManifestDiff(){}
+
+    public static <H> ManifestDiff compute(Map<String, H> base, Map<String, H> current){
+        ManifestDiff diff = new ManifestDiff();
+        List<String> addedCandidates = new ArrayList<>();
+        for (Map.Entry<String, H> entry: current.entrySet()) {
+            H baseHash = base.get(entry.getKey());
+            if (baseHash == null)
+                addedCandidates.add(entry.getKey());
+            else if (!baseHash.equals(entry.getValue()))
+                diff.modified.add(entry.getKey());
+        }
+        Map<H, Deque<String>> deletedByHash = new HashMap<>();
+        for (Map.Entry<String, H> entry: base.entrySet()) {
+            if (!current.containsKey(entry.getKey()))
+                deletedByHash.computeIfAbsent(entry.getValue(), hash -> new ArrayDeque<>()).add(entry.getKey());
+        }
+        for (String name: addedCandidates) {
+            Deque<String> sameContent = deletedByHash.get(current.get(name));
+            if (sameContent != null && !sameContent.isEmpty())
+                diff.renamed.put(sameContent.poll(), name);
+            else
+                diff.added.add(name);
+        }
+        for (Deque<String> names: deletedByHash.values())
+            diff.deleted.addAll(names);
+        return diff;
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public List<String> getModified() {
+        return modified;
+    }
+
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    public Map<String, String> getRenamed() {
+        return renamed;
+    }
+
+    public boolean isEmpty(){
+        return added.isEmpty() && modified.isEmpty() && deleted.isEmpty() && renamed.isEmpty();
+    }
+}
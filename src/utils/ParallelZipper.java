@@ -0,0 +1,530 @@
+package utils;
+
+import utils.data.FileEntry;
+import utils.data.IDataProvider;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+public class ParallelZipper {
+    // Файлы режутся на куски по CHUNK_SIZE, куски сжимаются параллельно в пуле. Каждый кусок - набор
+    // deflate-блоков, закрытый SYNC_FLUSH, с последними 32К предыдущего куска в качестве словаря, поэтому
+    // склеенные по порядку куски дают обычный deflate-поток. Архив собирается в одном потоке, размеры
+    // и CRC пишутся в дескриптор после данных, так что любой распаковщик zip его читает.
+    // Файл, уместившийся в один кусок, пишется с размерами и CRC в локальном заголовке: его конец виден
+    // без распаковки, и при чтении такие записи распаковываются параллельно
+    private static final int CHUNK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final double MIN_COMPRESSION_GAIN = 0.1;
+    private static final int MAX_ENTRIES = 0xFFFF; // Без zip64
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int FLAGS = 0x0808; // Дескриптор после данных, имена в UTF-8
+    private static final int KNOWN_SIZE_FLAGS = 0x0800; // Размеры в локальном заголовке, имена в UTF-8
+    private static final int DESCRIPTOR_FLAG = 0x0008;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DESCRIPTOR = 0x08074b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<Deflater[]> deflaters = ThreadLocal.withInitial(() -> new Deflater[11]); // По одному на уровень -1..9
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public static void zipEntries(List<FileEntry> files, OutputStream output) throws IOException {
+        zipEntries(files, output, Zipper.DEFAULT_LEVEL, ForkJoinPool.commonPool());
+    }
+
+    // Пишет архив в output и не закрывает его
+    public static void zipEntries(List<FileEntry> files, OutputStream output, int level, ForkJoinPool pool) throws IOException {
+        if (files.size() > MAX_ENTRIES) {
+            Zipper.zipEntries(files, output, level);
+            return;
+        }
+        ArchiveWriter writer = new ArchiveWriter(output, pool.getParallelism() * 2 + 2);
+        for (FileEntry file: files) {
+            EntryInfo entry = new EntryInfo(file.getName());
+            try (InputStream input = file.open()) {
+                byte[] dictionary = null;
+                byte[] current = readChunk(input);
+                byte[] next = (current.length == 0) ? current : readChunk(input);
+                if (next.length == 0) { // Файл из одного куска
+                    entry.crc.update(current, 0, current.length);
+                    entry.size = current.length;
+                    byte[] chunk = current;
+                    writer.add(new Pending(entry, Pending.WHOLE, pool.submit(() -> deflateChunk(chunk, null, true, level))));
+                    continue;
+                }
+                writer.add(new Pending(entry, Pending.HEADER, null));
+                while (true) {
+                    boolean last = next.length == 0;
+                    entry.crc.update(current, 0, current.length);
+                    entry.size += current.length;
+                    byte[] chunk = current;
+                    byte[] chunkDictionary = dictionary;
+                    writer.add(new Pending(entry, Pending.DATA, pool.submit(() -> deflateChunk(chunk, chunkDictionary, last, level))));
+                    if (last)
+                        break;
+                    dictionary = tail(current);
+                    current = next;
+                    next = (current.length == 0) ? current : readChunk(input);
+                }
+            }
+            writer.add(new Pending(entry, Pending.DESCRIPTOR, null));
+        }
+        writer.finish();
+    }
+
+    public static List<String> unzipTo(InputStream input, IDataProvider target) throws IOException {
+        return unzipTo(input, target, ForkJoinPool.commonPool());
+    }
+
+    // Записи с размерами в локальном заголовке (небольшие файлы) читаются как есть, а распаковка, проверка CRC
+    // и запись файла идут в пуле. Конец записи с дескриптором виден только при распаковке, поэтому такие
+    // записи (большие файлы, архивы Zipper) распаковываются в этом потоке сразу в файл
+    public static List<String> unzipTo(InputStream input, IDataProvider target, ExecutorService pool) throws IOException {
+        PushbackInputStream stream = new PushbackInputStream(new BufferedInputStream(input, BUFFER_SIZE), BUFFER_SIZE);
+        List<String> names = new ArrayList<>();
+        List<Future<?>> writes = new ArrayList<>();
+        Semaphore inFlight = new Semaphore(Runtime.getRuntime().availableProcessors() * 2 + 2);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            LocalHeader header;
+            while ((header = readLocalHeader(stream)) != null) {
+                String name = header.name;
+                names.add(name);
+                if (header.isParallel()) {
+                    byte[] compressed = new byte[(int) header.compressedSize];
+                    readFully(stream, compressed);
+                    LocalHeader entry = header;
+                    inFlight.acquireUninterruptibly();
+                    writes.add(pool.submit(() -> {
+                        try (OutputStream output = target.openWrite(name)) {
+                            output.write(extract(entry, compressed));
+                        } finally {
+                            inFlight.release();
+                        }
+                        return null;
+                    }));
+                    continue;
+                }
+                try (OutputStream output = target.openWrite(name)) {
+                    extract(header, stream, output, buffer);
+                }
+            }
+        } finally {
+            waitAll(writes);
+        }
+        return names;
+    }
+
+    // null, если локальные заголовки кончились (дальше оглавление) или поток пуст
+    private static LocalHeader readLocalHeader(PushbackInputStream stream) throws IOException {
+        byte[] signature = new byte[4];
+        int length = 0;
+        int len;
+        while (length < 4 && (len = stream.read(signature, length, 4 - length)) > 0)
+            length += len;
+        if (length == 0)
+            return null;
+        if (length < 4)
+            throw new EOFException("Truncated zip archive");
+        if (littleEndian(signature, 0, 4) != LOCAL_HEADER)
+            return null;
+        byte[] fixed = new byte[26];
+        readFully(stream, fixed);
+        LocalHeader header = new LocalHeader();
+        header.flags = (int) littleEndian(fixed, 2, 2);
+        header.method = (int) littleEndian(fixed, 4, 2);
+        header.crc = littleEndian(fixed, 10, 4);
+        header.compressedSize = littleEndian(fixed, 14, 4);
+        header.size = littleEndian(fixed, 18, 4);
+        byte[] name = new byte[(int) littleEndian(fixed, 22, 2)];
+        byte[] extra = new byte[(int) littleEndian(fixed, 24, 2)];
+        readFully(stream, name);
+        readFully(stream, extra);
+        header.name = new String(name, StandardCharsets.UTF_8);
+        for (int i = 0; i + 4 <= extra.length; i += 4 + (int) littleEndian(extra, i + 2, 2)) {
+            if (littleEndian(extra, i, 2) == ZIP64_EXTRA)
+                header.zip64 = true;
+        }
+        if (header.method != ZipEntry.DEFLATED && header.method != ZipEntry.STORED)
+            throw new IOException("Unsupported compression method " + header.method + " for " + header.name);
+        if (header.method == ZipEntry.STORED && (header.hasDescriptor() || header.zip64))
+            throw new IOException("Unsupported stored entry " + header.name);
+        return header;
+    }
+
+    // Запись с известными размерами целиком в памяти
+    private static byte[] extract(LocalHeader header, byte[] compressed) throws IOException {
+        byte[] data;
+        if (header.method == ZipEntry.STORED)
+            data = compressed;
+        else {
+            data = new byte[(int) header.size];
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(compressed);
+            int length = 0;
+            try {
+                while (length < data.length && !inflater.finished()) {
+                    int len = inflater.inflate(data, length, data.length - length);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    length += len;
+                }
+                if (length == data.length && !inflater.finished())
+                    inflater.inflate(new byte[1]); // Завершающий блок без данных
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted entry " + header.name, e);
+            }
+            if (length != data.length || !inflater.finished())
+                throw new IOException("Corrupted entry " + header.name);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (crc.getValue() != header.crc)
+            throw new IOException("CRC mismatch in " + header.name);
+        return data;
+    }
+
+    // Запись распаковывается потоком прямо в output. Лишние байты, прочитанные после конца данных, возвращаются в stream
+    private static void extract(LocalHeader header, PushbackInputStream stream, OutputStream output, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        if (header.method == ZipEntry.STORED) {
+            long remaining = header.size;
+            while (remaining > 0) {
+                int len = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (len < 0)
+                    throw new EOFException("Truncated entry " + header.name);
+                crc.update(buffer, 0, len);
+                output.write(buffer, 0, len);
+                remaining -= len;
+                size += len;
+            }
+        } else {
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            byte[] input = new byte[BUFFER_SIZE];
+            int inputLength = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        inputLength = stream.read(input);
+                        if (inputLength < 0)
+                            throw new EOFException("Truncated entry " + header.name);
+                        inflater.setInput(input, 0, inputLength);
+                    }
+                    if (inflater.needsDictionary())
+                        throw new IOException("Corrupted entry " + header.name);
+                    int len = inflater.inflate(buffer);
+                    crc.update(buffer, 0, len);
+                    output.write(buffer, 0, len);
+                    size += len;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted entry " + header.name, e);
+            }
+            int remaining = inflater.getRemaining();
+            if (remaining > 0)
+                stream.unread(input, inputLength - remaining, remaining);
+        }
+        if (header.hasDescriptor()) {
+            byte[] descriptor = new byte[header.zip64 ? 20 : 12];
+            readFully(stream, descriptor, 0, 4);
+            if (littleEndian(descriptor, 0, 4) == DESCRIPTOR) // Сигнатура дескриптора необязательна
+                readFully(stream, descriptor, 0, 4);
+            readFully(stream, descriptor, 4, descriptor.length - 4);
+            header.crc = littleEndian(descriptor, 0, 4);
+            header.size = littleEndian(descriptor, header.zip64 ? 12 : 8, header.zip64 ? 8 : 4);
+        }
+        if (crc.getValue() != header.crc || size != header.size)
+            throw new IOException("CRC mismatch in " + header.name);
+    }
+
+    private static long littleEndian(byte[] bytes, int offset, int length){
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--)
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        return value;
+    }
+
+    private static void readFully(InputStream stream, byte[] bytes) throws IOException {
+        readFully(stream, bytes, 0, bytes.length);
+    }
+
+    private static void readFully(InputStream stream, byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int len = stream.read(bytes, offset, length);
+            if (len < 0)
+                throw new EOFException("Truncated zip archive");
+            offset += len;
+            length -= len;
+        }
+    }
+
+    private static void waitAll(List<Future<?>> futures) throws IOException {
+        IOException error = null;
+        for (Future<?> future: futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (error == null)
+                    error = (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    private static byte[] readChunk(InputStream input) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int length = 0;
+        int len;
+        while (length < chunk.length && (len = input.read(chunk, length, chunk.length - length)) > 0)
+            length += len;
+        return (length == chunk.length) ? chunk : Arrays.copyOf(chunk, length);
+    }
+
+    private static byte[] tail(byte[] chunk){
+        return Arrays.copyOfRange(chunk, Math.max(0, chunk.length - DICTIONARY_SIZE), chunk.length);
+    }
+
+    // Несжимаемый кусок пересжимается без сжатия (stored-блоки deflate), это почти бесплатно
+    private static byte[] deflateChunk(byte[] data, byte[] dictionary, boolean last, int level){
+        byte[] compressed = deflate(data, dictionary, last, level);
+        if (level != Deflater.NO_COMPRESSION && compressed.length > data.length * (1 - MIN_COMPRESSION_GAIN))
+            compressed = deflate(data, dictionary, last, Deflater.NO_COMPRESSION);
+        return compressed;
+    }
+
+    private static byte[] deflate(byte[] data, byte[] dictionary, boolean last, int level){
+        // Уровень у Deflater не меняется: после setLevel первый вызов deflate может обработать вход не полностью
+        Deflater[] cached = deflaters.get();
+        Deflater deflater = cached[level + 1];
+        if (deflater == null)
+            deflater = cached[level + 1] = new Deflater(level, true);
+        deflater.reset();
+        if (dictionary != null)
+            deflater.setDictionary(dictionary);
+        deflater.setInput(data);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buffer = new byte[16 * 1024];
+        int len;
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                len = deflater.deflate(buffer);
+                output.write(buffer, 0, len);
+            }
+        } else {
+            do {
+                len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                output.write(buffer, 0, len);
+            } while (len == buffer.length);
+        }
+        return output.toByteArray();
+    }
+
+    private static class EntryInfo {
+        final byte[] name;
+        final CRC32 crc = new CRC32();
+        long size;
+        long compressedSize;
+        long offset;
+        int flags = FLAGS;
+
+        EntryInfo(String name){
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class LocalHeader {
+        String name;
+        int flags;
+        int method;
+        long crc;
+        long compressedSize;
+        long size;
+        boolean zip64;
+
+        boolean hasDescriptor(){
+            return (flags & DESCRIPTOR_FLAG) != 0;
+        }
+
+        // Небольшая запись, конец которой известен без распаковки
+        boolean isParallel(){
+            return !hasDescriptor() && !zip64 && size <= CHUNK_SIZE && compressedSize <= 2 * CHUNK_SIZE;
+        }
+    }
+
+    private static class Pending {
+        static final int HEADER = 0;
+        static final int DATA = 1;
+        static final int DESCRIPTOR = 2;
+        static final int WHOLE = 3; // Заголовок с размерами и данные файла из одного куска
+
+        final EntryInfo entry;
+        final int kind;
+        final Future<byte[]> data;
+
+        Pending(EntryInfo entry, int kind, Future<byte[]> data){
+            this.entry = entry;
+            this.kind = kind;
+            this.data = data;
+        }
+    }
+
+    private static class ArchiveWriter {
+        private final DataOutputStream output;
+        private final int window;
+        private final Deque<Pending> pending = new ArrayDeque<>();
+        private final List<EntryInfo> written = new ArrayList<>();
+        private final int dosTime;
+        private final int dosDate;
+        private int pendingChunks;
+        private long offset;
+
+        ArchiveWriter(OutputStream target, int window){
+            this.output = new DataOutputStream(new BufferedOutputStream(target, 64 * 1024));
+            this.window = window;
+            Calendar calendar = Calendar.getInstance();
+            dosTime = (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+            dosDate = ((calendar.get(Calendar.YEAR) - 1980) << 9) | ((calendar.get(Calendar.MONTH) + 1) << 5) | calendar.get(Calendar.DAY_OF_MONTH);
+        }
+
+        // Не больше window кусков сжимается одновременно, остальное ждет чтения
+        void add(Pending item) throws IOException {
+            pending.addLast(item);
+            if (item.kind == Pending.DATA || item.kind == Pending.WHOLE)
+                pendingChunks++;
+            while (pendingChunks > window)
+                writeNext();
+        }
+
+        void finish() throws IOException {
+            while (!pending.isEmpty())
+                writeNext();
+            long centralOffset = offset;
+            for (EntryInfo entry: written)
+                writeCentralHeader(entry);
+            long centralSize = offset - centralOffset;
+            if (offset > MAX_SIZE)
+                throw new IOException("Archive is too large");
+            writeInt(0x06054b50);
+            writeShort(0);
+            writeShort(0);
+            writeShort(written.size());
+            writeShort(written.size());
+            writeInt((int) centralSize);
+            writeInt((int) centralOffset);
+            writeShort(0);
+            output.flush();
+        }
+
+        private void writeNext() throws IOException {
+            Pending item = pending.pollFirst();
+            EntryInfo entry = item.entry;
+            if (item.kind == Pending.HEADER)
+                writeLocalHeader(entry);
+            else if (item.kind == Pending.DATA) {
+                pendingChunks--;
+                byte[] data = get(item.data);
+                entry.compressedSize += data.length;
+                write(data);
+            } else if (item.kind == Pending.WHOLE) {
+                pendingChunks--;
+                byte[] data = get(item.data);
+                entry.compressedSize = data.length;
+                entry.flags = KNOWN_SIZE_FLAGS;
+                if (offset > MAX_SIZE)
+                    throw new IOException("Archive is too large");
+                writeLocalHeader(entry);
+                write(data);
+                written.add(entry);
+            } else {
+                if (entry.size > MAX_SIZE || entry.compressedSize > MAX_SIZE || entry.offset > MAX_SIZE)
+                    throw new IOException("Entry is too large: " + new String(entry.name, StandardCharsets.UTF_8));
+                writeInt(DESCRIPTOR);
+                writeInt((int) entry.crc.getValue());
+                writeInt((int) entry.compressedSize);
+                writeInt((int) entry.size);
+                written.add(entry);
+            }
+        }
+
+        private void writeLocalHeader(EntryInfo entry) throws IOException {
+            boolean known = (entry.flags & DESCRIPTOR_FLAG) == 0;
+            entry.offset = offset;
+            writeInt(LOCAL_HEADER);
+            writeShort(20);
+            writeShort(entry.flags);
+            writeShort(ZipEntry.DEFLATED);
+            writeShort(dosTime);
+            writeShort(dosDate);
+            writeInt(known ? (int) entry.crc.getValue() : 0);
+            writeInt(known ? (int) entry.compressedSize : 0);
+            writeInt(known ? (int) entry.size : 0);
+            writeShort(entry.name.length);
+            writeShort(0);
+            write(entry.name);
+        }
+
+        private static byte[] get(Future<byte[]> data) throws IOException {
+            try {
+                return data.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private void writeCentralHeader(EntryInfo entry) throws IOException {
+            writeInt(0x02014b50);
+            writeShort(20);
+            writeShort(20);
+            writeShort(entry.flags);
+            writeShort(ZipEntry.DEFLATED);
+            writeShort(dosTime);
+            writeShort(dosDate);
+            writeInt((int) entry.crc.getValue());
+            writeInt((int) entry.compressedSize);
+            writeInt((int) entry.size);
+            writeShort(entry.name.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt((int) entry.offset);
+            write(entry.name);
+        }
+
+        // Zip хранит числа в little-endian
+        private void writeShort(int value) throws IOException {
+            output.write(value & 0xFF);
+            output.write((value >>> 8) & 0xFF);
+            offset += 2;
+        }
+
+        private void writeInt(int value) throws IOException {
+            writeShort(value & 0xFFFF);
+            writeShort((value >>> 16) & 0xFFFF);
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            output.write(bytes);
+            offset += bytes.length;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package utils;
+
+import utils.data.FileEntry;
+import utils.hash.Hashers;
+import utils.hash.IHashState;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class RollingDelta {
+    // Передача изменений файла в духе rsync. Сервер режет старую версию на блоки и отдает для каждого
+    // слабую (скользящую) и сильную контрольные суммы. Клиент проходит новый файл окном размера блока,
+    // сдвигая слабую сумму на байт за шаг, и вместо совпавших блоков пишет ссылки на них, а остальное -
+    // как есть. Сервер собирает файл из старой версии и дельты и сверяет хеш результата.
+    // Подпись: размер блока, затем для каждого полного блока слабая сумма (int) и xxHash64 (long).
+    // Дельта: размер блока, команды LITERAL <длина> <байты> | COPY <блок> <число блоков>, END <xxHash64 файла>
+    public static long MIN_FILE_SIZE; // Мелкие файлы дешевле передать целиком
+    private static int MAX_DELTA_SIZE; // Дельта собирается в памяти
+    private static int MIN_BLOCK_SIZE;
+    private static int MAX_BLOCK_SIZE;
+    private static int MAX_LITERAL;
+    private static final byte LITERAL = 0;
+    private static final byte COPY = 1;
+    private static final byte END = 2;
+
+    static {
+        MIN_FILE_SIZE = 256 * 1024;
+        MIN_BLOCK_SIZE = 2 * 1024;
+        MAX_BLOCK_SIZE = 128 * 1024;
+        MAX_LITERAL = 64 * 1024;
+        MAX_DELTA_SIZE = 64 * 1024 * 1024;
+    }
+
+    // Как в rsync: блок порядка корня из размера файла
+    private static int blockSizeFor(long size){
+        int blockSize = (int) Math.sqrt((double) size) & ~7;
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    public static byte[] signature(SeekableByteChannel base) throws IOException {
+        int blockSize = blockSizeFor(base.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(base.size() / blockSize * 12 + 4, Integer.MAX_VALUE - 8));
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(blockSize);
+        ByteBuffer block = ByteBuffer.allocate(blockSize);
+        base.position(0);
+        while (readFully(base, block)) {
+            output.writeInt(weakSum(block.array(), 0, blockSize));
+            output.writeLong(strongSum(block.array(), 0, blockSize));
+            block.clear();
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    // Возвращает дельту или null, если она вышла больше половины файла и его выгоднее передать целиком
+    public static byte[] encode(byte[] signature, FileEntry file) throws IOException {
+        if (file.getFile() == null)
+            return null;
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.getFile(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                return null;
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(signature));
+        int blockSize = input.readInt();
+        int blockCount = (signature.length - 4) / 12;
+        int[] weak = new int[blockCount];
+        long[] strong = new long[blockCount];
+        int[] next = new int[blockCount]; // Цепочки блоков с одинаковой слабой суммой
+        WeakSumTable first = new WeakSumTable(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            weak[i] = input.readInt();
+            strong[i] = input.readLong();
+        }
+        for (int i = blockCount - 1; i >= 0; i--)
+            next[i] = first.put(weak[i], i);
+
+        DeltaWriter writer = new DeltaWriter(data, blockSize, Math.min(data.limit() / 2, MAX_DELTA_SIZE));
+        int size = data.limit();
+        byte[] window = new byte[blockSize];
+        int pos = 0;
+        int a = 0;
+        int b = 0;
+        boolean fresh = true;
+        while (pos + blockSize <= size && !writer.isOverLimit()) {
+            if (fresh) {
+                for (int i = 0; i < blockSize; i++) {
+                    a += data.get(pos + i) & 0xFF;
+                    b += a;
+                }
+                fresh = false;
+            }
+            int matched = -1;
+            int head = first.get((a & 0xFFFF) | (b << 16));
+            if (head != -1) {
+                for (int i = 0; i < blockSize; i++)
+                    window[i] = data.get(pos + i);
+                long sum = strongSum(window, 0, blockSize);
+                for (int i = head; i != -1; i = next[i]) {
+                    if (strong[i] == sum && (matched == -1 || i == writer.nextBlock()))
+                        matched = i;
+                }
+            }
+            if (matched >= 0) {
+                writer.copy(pos, matched);
+                pos += blockSize;
+                a = 0;
+                b = 0;
+                fresh = true;
+                continue;
+            }
+            if (pos + blockSize < size) {
+                int out = data.get(pos) & 0xFF;
+                int in = data.get(pos + blockSize) & 0xFF;
+                a += in - out;
+                b += a - blockSize * out;
+            }
+            pos++;
+            writer.literalUpTo(pos);
+        }
+        writer.finish(size, Hashers.XXHASH64.hash(file));
+        return writer.isOverLimit() ? null : writer.toByteArray();
+    }
+
+    // Собирает новое содержимое из старой версии и дельты и пишет его в output по мере сборки.
+    // Ссылки за пределы старой версии и несовпадение хеша результата - InvalidDeltaException
+    public static void apply(SeekableByteChannel base, InputStream delta, OutputStream output) throws IOException {
+        DataInputStream input = new DataInputStream(delta);
+        int blockSize = input.readInt();
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE)
+            throw new InvalidDeltaException("Invalid delta block size " + blockSize);
+        long baseSize = base.size();
+        IHashState hash = Hashers.XXHASH64.start();
+        byte[] buffer = new byte[MAX_LITERAL];
+        while (true) {
+            byte op = input.readByte();
+            if (op == LITERAL) {
+                int length = input.readInt();
+                if (length < 0)
+                    throw new InvalidDeltaException("Invalid literal length " + length);
+                while (length > 0) {
+                    int len = Math.min(length, buffer.length);
+                    input.readFully(buffer, 0, len);
+                    write(output, hash, buffer, len);
+                    length -= len;
+                }
+            } else if (op == COPY) {
+                int block = input.readInt();
+                int count = input.readInt();
+                if (block < 0 || count < 0 || ((long) block + count) * blockSize > baseSize)
+                    throw new InvalidDeltaException("Delta refers past the end of the base file");
+                long length = (long) count * blockSize;
+                base.position((long) block * blockSize);
+                while (length > 0) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(length, buffer.length));
+                    if (!readFully(base, chunk))
+                        throw new IOException("Base file was truncated while applying delta");
+                    write(output, hash, buffer, chunk.position());
+                    length -= chunk.position();
+                }
+            } else if (op == END) {
+                byte[] actual = hash.finish();
+                if (input.readInt() != actual.length)
+                    throw new InvalidDeltaException("Corrupted delta");
+                byte[] expected = new byte[actual.length];
+                input.readFully(expected);
+                if (!Arrays.equals(expected, actual))
+                    throw new InvalidDeltaException("Delta does not match the base file");
+                return;
+            } else
+                throw new InvalidDeltaException("Corrupted delta");
+        }
+    }
+
+    private static void write(OutputStream output, IHashState hash, byte[] buffer, int length) throws IOException {
+        output.write(buffer, 0, length);
+        hash.update(ByteBuffer.wrap(buffer, 0, length));
+    }
+
+    private static boolean readFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static int weakSum(byte[] data, int offset, int length){
+        int a = 0;
+        int b = 0;
+        for (int i = offset; i < offset + length; i++) {
+            a += data[i] & 0xFF;
+            b += a;
+        }
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    private static long strongSum(byte[] data, int offset, int length){
+        byte[] hash = Hashers.XXHASH64.hash(Arrays.copyOfRange(data, offset, offset + length));
+        return ByteBuffer.wrap(hash).getLong();
+    }
+
+    // Слабая сумма -> первый блок с ней. Открытая адресация на массивах: блоков у большого файла
+    // десятки тысяч, и упаковка ключей в Integer заметно дороже самого поиска
+    private static class WeakSumTable {
+        private static final int EMPTY = -1;
+        private final int[] keys;
+        private final int[] values;
+        private final int mask;
+        private final int shift;
+
+        WeakSumTable(int expected){
+            int capacity = Integer.highestOneBit(Math.max(expected, 1) * 2 - 1) << 1;
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, EMPTY);
+            mask = capacity - 1;
+            shift = Integer.numberOfLeadingZeros(mask);
+        }
+
+        // Возвращает прежнее значение или -1
+        int put(int key, int value){
+            int slot = slot(key);
+            int previous = values[slot];
+            keys[slot] = key;
+            values[slot] = value;
+            return previous;
+        }
+
+        int get(int key){
+            return values[slot(key)];
+        }
+
+        // Слот ключа или первый свободный слот на его пути
+        private int slot(int key){
+            int slot = (key * 0x9E3779B9) >>> shift; // Старшие биты произведения зависят от всех битов ключа
+            while (values[slot] != EMPTY && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+    }
+
+    // Копит непрерывные ссылки на блоки и непереданные байты, пока их можно слить в одну команду
+    private static class DeltaWriter {
+        private final ByteBuffer data;
+        private final int blockSize;
+        private final int limit;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(bytes);
+        private int literalStart;
+        private int runStart = -1;
+        private int runCount;
+
+        DeltaWriter(ByteBuffer data, int blockSize, int limit) throws IOException {
+            this.data = data;
+            this.blockSize = blockSize;
+            this.limit = limit;
+            output.writeInt(blockSize);
+        }
+
+        boolean isOverLimit(){
+            return bytes.size() > limit;
+        }
+
+        // Блок, продолжающий текущую цепочку ссылок
+        int nextBlock(){
+            return (runStart < 0) ? -1 : runStart + runCount;
+        }
+
+        void literalUpTo(int pos) throws IOException {
+            if (pos - literalStart >= MAX_LITERAL)
+                flushLiteral(pos);
+        }
+
+        void copy(int pos, int block) throws IOException {
+            flushLiteral(pos);
+            if (block != nextBlock()) {
+                flushRun();
+                runStart = block;
+            }
+            runCount++;
+            literalStart = pos + blockSize;
+        }
+
+        void finish(int size, byte[] hash) throws IOException {
+            flushLiteral(size);
+            flushRun();
+            output.writeByte(END);
+            output.writeInt(hash.length);
+            output.write(hash);
+            output.flush();
+        }
+
+        byte[] toByteArray(){
+            return bytes.toByteArray();
+        }
+
+        private void flushLiteral(int pos) throws IOException {
+            if (pos <= literalStart)
+                return;
+            flushRun();
+            output.writeByte(LITERAL);
+            output.writeInt(pos - literalStart);
+            ByteBuffer literal = data.duplicate();
+            literal.limit(pos).position(literalStart);
+            byte[] chunk = new byte[Math.min(pos - literalStart, MAX_LITERAL)];
+            while (literal.hasRemaining()) {
+                int len = Math.min(literal.remaining(), chunk.length);
+                literal.get(chunk, 0, len);
+                output.write(chunk, 0, len);
+            }
+            literalStart = pos;
+        }
+
+        private void flushRun() throws IOException {
+            if (runCount == 0)
+                return;
+            output.writeByte(COPY);
+            output.writeInt(runStart);
+            output.writeInt(runCount);
+            runStart = -1;
+            runCount = 0;
+        }
+    }
+}
@@ -1,21 +1,127 @@
 package utils;
 
 import javafx.util.Pair;
+import utils.data.FileEntry;
+import utils.data.IDataProvider;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 public class Zipper {
+    public static int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double MIN_COMPRESSION_GAIN = 0.1; // Если начало файла сжимается хуже, файл пишется без сжатия
+
+    public interface EntryHandler {
+        void handle(String name, InputStream content) throws IOException; // content закрывать не нужно
+    }
+
+    // Файлы читаются из источника по мере записи архива, в памяти только буфер.
+    // Уже сжатые данные (архивы, картинки) определяются по первым 64К и пишутся как STORED
+    public static void zipEntries(List<FileEntry> files, OutputStream output, int level) throws IOException {
+        ZipOutputStream zipOutputStream = new ZipOutputStream(output);
+        zipOutputStream.setLevel(level);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Deflater sampler = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            for (FileEntry file: files) {
+                ZipEntry entry = new ZipEntry(file.getName());
+                if (level == Deflater.NO_COMPRESSION || !isCompressible(file, buffer, sampler))
+                    prepareStored(entry, file, buffer);
+                zipOutputStream.putNextEntry(entry);
+                try (InputStream input = file.open()) {
+                    copy(input, zipOutputStream, buffer);
+                }
+                zipOutputStream.closeEntry();
+            }
+            zipOutputStream.finish();
+        } finally {
+            sampler.end();
+        }
+    }
+
+    public static void zipEntries(List<FileEntry> files, OutputStream output) throws IOException {
+        zipEntries(files, output, DEFAULT_LEVEL);
+    }
+
+    public static void unzipEach(InputStream input, EntryHandler handler) throws IOException {
+        ZipInputStream stream = new ZipInputStream(input);
+        InputStream entryStream = new FilterInputStream(stream) {
+            @Override
+            public void close() { }
+        };
+        ZipEntry entry;
+        while ((entry = stream.getNextEntry()) != null)
+            handler.handle(entry.getName(), entryStream);
+    }
+
+    // Распаковывает архив сразу в файлы target, возвращает имена записанных файлов
+    public static List<String> unzipTo(InputStream input, IDataProvider target) throws IOException {
+        List<String> names = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        unzipEach(input, (name, content) -> {
+            try (OutputStream output = target.openWrite(name)) {
+                copy(content, output, buffer);
+            }
+            names.add(name);
+        });
+        return names;
+    }
+
+    private static boolean isCompressible(FileEntry file, byte[] buffer, Deflater sampler) throws IOException {
+        int sampleLength = 0;
+        try (InputStream input = file.open()) {
+            int len;
+            while (sampleLength < buffer.length && (len = input.read(buffer, sampleLength, buffer.length - sampleLength)) > 0)
+                sampleLength += len;
+        }
+        if (sampleLength == 0)
+            return true;
+        sampler.reset();
+        sampler.setInput(buffer, 0, sampleLength);
+        sampler.finish();
+        byte[] compressed = new byte[8192];
+        long compressedLength = 0;
+        while (!sampler.finished())
+            compressedLength += sampler.deflate(compressed);
+        return compressedLength < sampleLength * (1 - MIN_COMPRESSION_GAIN);
+    }
+
+    // Для STORED размер и CRC нужны до записи заголовка, поэтому файл читается лишний раз
+    private static void prepareStored(ZipEntry entry, FileEntry file, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream input = file.open()) {
+            int len;
+            while ((len = input.read(buffer)) > 0) {
+                crc.update(buffer, 0, len);
+                size += len;
+            }
+        }
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc.getValue());
+    }
+
+    private static void copy(InputStream input, OutputStream output, byte[] buffer) throws IOException {
+        int len;
+        while ((len = input.read(buffer)) > 0)
+            output.write(buffer, 0, len);
+    }
+
     public static byte[] unzipOne(byte[] input) throws IOException {
-        InputStream archivedBytes = new ByteArrayInputStream(input);
-        ZipInputStream stream = new ZipInputStream(archivedBytes);
+        return unzipOne(new ByteArrayInputStream(input));
+    }
+
+    public static byte[] unzipOne(InputStream input) throws IOException {
+        ZipInputStream stream = new ZipInputStream(input);
         byte[] buffer = new byte[2048];
         ZipEntry entry = stream.getNextEntry();
         ByteArrayOutputStream output = null;
@@ -30,8 +136,11 @@ public class Zipper {
     }
 
     public static List<Pair<String, byte[]>> unzipMultiple(byte[] input) throws IOException{
-        InputStream archivedBytes = new ByteArrayInputStream(input);
-        ZipInputStream stream = new ZipInputStream(archivedBytes);
+        return unzipMultiple(new ByteArrayInputStream(input));
+    }
+
+    public static List<Pair<String, byte[]>> unzipMultiple(InputStream input) throws IOException{
+        ZipInputStream stream = new ZipInputStream(input);
         byte[] buffer = new byte[2048];
         List<Pair<String, byte[]>> entries = new ArrayList<>();
         ZipEntry entry;
@@ -56,7 +165,15 @@ public class Zipper {
 
     public static byte[] zipMultiple(String[] names, byte[][] fileContents) throws IOException{
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        ZipOutputStream zipOutputStream = new ZipOutputStream(byteArrayOutputStream);
+        zipMultiple(names, fileContents, byteArrayOutputStream);
+        byte[] byteObject = byteArrayOutputStream.toByteArray();
+        byteArrayOutputStream.close();
+        return byteObject;
+    }
+
+    // Пишет архив в output и не закрывает его
+    public static void zipMultiple(String[] names, byte[][] fileContents, OutputStream output) throws IOException{
+        ZipOutputStream zipOutputStream = new ZipOutputStream(output);
         ZipEntry entry;
         for (int i = 0; i < names.length; i++) {
             entry = new ZipEntry(names[i]);
@@ -65,23 +182,25 @@ public class Zipper {
             zipOutputStream.write(fileContents[i]);
             zipOutputStream.closeEntry();
         }
-        zipOutputStream.close();
+        zipOutputStream.finish();
+    }
+
+    public static byte[] zipOne(byte[] input, String name) throws IOException{
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        zipOne(input, name, byteArrayOutputStream);
         byte[] byteObject = byteArrayOutputStream.toByteArray();
         byteArrayOutputStream.close();
         return byteObject;
     }
 
-    public static byte[] zipOne(byte[] input, String name) throws IOException{
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        ZipOutputStream zipOutputStream = new ZipOutputStream(byteArrayOutputStream);
+    // Пишет архив в output и не закрывает его
+    public static void zipOne(byte[] input, String name, OutputStream output) throws IOException{
+        ZipOutputStream zipOutputStream = new ZipOutputStream(output);
         ZipEntry entry = new ZipEntry(name);
         entry.setSize(input.length);
         zipOutputStream.putNextEntry(entry);
         zipOutputStream.write(input);
         zipOutputStream.closeEntry();
-        zipOutputStream.close();
-        byte[] byteObject = byteArrayOutputStream.toByteArray();
-        byteArrayOutputStream.close();
-        return byteObject;
+        zipOutputStream.finish();
     }
 }
@@ -0,0 +1,166 @@
+package utils.data;
+
+import utils.hash.Hashers;
+import utils.hash.IHashState;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+public class BlobStore {
+    // Хранилище содержимого файлов по хешу: одинаковые файлы из любых версий и репозиториев хранятся один раз.
+    // Манифест версии - текстовый файл со строками "<хеш>\t<имя файла>".
+    // Содержимое пишется во временный файл и хешируется на ходу, затем атомарно переносится на место хеша,
+    // поэтому под хешем никогда не лежит недописанный файл, а одновременная запись одинакового содержимого
+    // из разных сессий не портит его
+    public static String TEMP_DIRECTORY_NAME;
+
+    static {
+        TEMP_DIRECTORY_NAME = "tmp";
+    }
+
+    private final IDataProvider dataProvider;
+    private final String root;
+    private final String tempDirectory;
+
+    public BlobStore(IDataProvider dataProvider, String root){
+        this.dataProvider = dataProvider;
+        this.root = root;
+        this.tempDirectory = dataProvider.resolve(root, TEMP_DIRECTORY_NAME);
+    }
+
+    // Временные файлы, оставшиеся после сбоя; вызывается при запуске сервера
+    public void removeTemporary() throws IOException {
+        if (dataProvider.exists(tempDirectory))
+            dataProvider.delete(tempDirectory);
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public String put(byte[] content) throws IOException {
+        try (BlobOutputStream output = create()) {
+            output.write(content);
+            return output.commit();
+        }
+    }
+
+    // Содержимое одного файла из потока; поток не закрывается
+    public String put(InputStream content) throws IOException {
+        try (BlobOutputStream output = create()) {
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = content.read(buffer)) > 0)
+                output.write(buffer, 0, len);
+            return output.commit();
+        }
+    }
+
+    // Новый файл хранилища. Содержимое появляется в хранилище только после commit, закрытие без commit его отменяет
+    public BlobOutputStream create() throws IOException {
+        String tempPath = dataProvider.resolve(tempDirectory, UUID.randomUUID().toString());
+        return new BlobOutputStream(tempPath, dataProvider.openWrite(tempPath));
+    }
+
+    public byte[] get(String hash) throws IOException {
+        return dataProvider.read(getBlobPath(hash));
+    }
+
+    // Содержимое читается из хранилища только при открытии записи
+    public FileEntry entry(String name, String hash){
+        String path = getBlobPath(hash);
+        return new FileEntry(name, -1, 0, () -> dataProvider.openRead(path));
+    }
+
+    public SeekableByteChannel openChannel(String hash) throws IOException {
+        return dataProvider.openChannel(getBlobPath(hash));
+    }
+
+    public boolean contains(String hash){
+        return dataProvider.exists(getBlobPath(hash));
+    }
+
+    public void writeManifest(String path, Map<String, String> nameHashMap) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry: nameHashMap.entrySet())
+            sb.append(entry.getValue()).append('\t').append(entry.getKey()).append('\n');
+        dataProvider.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Map<String, String> readManifest(String path) throws IOException {
+        Map<String, String> nameHashMap = new LinkedHashMap<>();
+        String manifest = new String(dataProvider.read(path), StandardCharsets.UTF_8);
+        for (String line: manifest.split("\n")) {
+            if (line.isEmpty())
+                continue;
+            String[] hashAndName = line.split("\t", 2);
+            if (hashAndName.length != 2)
+                throw new IOException("Corrupted manifest " + path);
+            nameHashMap.put(hashAndName[1], hashAndName[0]);
+        }
+        return nameHashMap;
+    }
+
+    private String getBlobPath(String hash){
+        return dataProvider.resolve(dataProvider.resolve(root, hash.substring(0, 2)), hash);
+    }
+
+    public static String hash(byte[] content){
+        return Hashers.toHex(Hashers.CONTENT_ADDRESS.hash(content));
+    }
+
+    public class BlobOutputStream extends OutputStream {
+        private final String tempPath;
+        private final OutputStream output;
+        private final IHashState hash = Hashers.CONTENT_ADDRESS.start();
+        private boolean closed;
+
+        private BlobOutputStream(String tempPath, OutputStream output){
+            this.tempPath = tempPath;
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            output.write(bytes, offset, length);
+            hash.update(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        // Переносит файл в хранилище и возвращает его хеш. Если такое содержимое уже есть, временный файл удаляется
+        public String commit() throws IOException {
+            output.close();
+            String blobHash = Hashers.toHex(hash.finish());
+            String path = getBlobPath(blobHash);
+            if (dataProvider.exists(path))
+                dataProvider.delete(tempPath);
+            else
+                dataProvider.move(tempPath, path);
+            closed = true;
+            return blobHash;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                output.close();
+            } finally {
+                dataProvider.delete(tempPath);
+            }
+        }
+    }
+}
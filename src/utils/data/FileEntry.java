@@ -0,0 +1,62 @@
+package utils.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+public class FileEntry {
+    // Описание файла без содержимого. Содержимое читается только по запросу через read или open
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    private final String name;
+    private final long size; // -1, если размер заранее неизвестен
+    private final long lastModified;
+    private final ContentSource source;
+    private final Path file; // null, если содержимое не лежит в отдельном файле
+
+    public FileEntry(String name, long size, long lastModified, ContentSource source){
+        this(name, size, lastModified, source, null);
+    }
+
+    public FileEntry(String name, long size, long lastModified, ContentSource source, Path file){
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.source = source;
+        this.file = file;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public InputStream open() throws IOException {
+        return source.open();
+    }
+
+    public byte[] read() throws IOException {
+        try (InputStream inputStream = open()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((size < 0) ? 8192 : (int) Math.min(size, Integer.MAX_VALUE - 8));
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = inputStream.read(buffer)) > 0)
+                output.write(buffer, 0, len);
+            return output.toByteArray();
+        }
+    }
+}
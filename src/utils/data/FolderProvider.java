@@ -4,6 +4,9 @@ import javafx.util.Pair;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -59,11 +62,41 @@ public class FolderProvider implements IDataProvider {
         Files.write(pathToFile, bytes);
     }
 
+    @Override
+    public InputStream openRead(String name) throws IOException {
+        return Files.newInputStream(path.resolve(name));
+    }
+
+    @Override
+    public OutputStream openWrite(String name) throws IOException {
+        Path pathToFile = path.resolve(name);
+        if (pathToFile.getParent() != null)
+            Files.createDirectories(pathToFile.getParent());
+        return Files.newOutputStream(pathToFile);
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(String name) throws IOException {
+        return Files.newByteChannel(path.resolve(name), StandardOpenOption.READ);
+    }
+
     @Override
     public void delete(String name) throws IOException {
         deleteFileOrFolder(path.resolve(name));
     }
 
+    @Override
+    public void move(String from, String to) throws IOException {
+        Path target = path.resolve(to);
+        if (target.getParent() != null)
+            Files.createDirectories(target.getParent());
+        try {
+            Files.move(path.resolve(from), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) { // Например, между разными файловыми системами
+            Files.move(path.resolve(from), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     @Override
     public void createDirectory(String name) {
         new File(path.resolve(name).toString()).mkdirs();
@@ -97,12 +130,30 @@ public class FolderProvider implements IDataProvider {
 
     @Override
     public List<Pair<String, byte[]>> walkThrough(String dir) throws IOException{
-        File folder = Paths.get(dir).toFile();
         List<Pair<String, byte[]>> listOfFiles = new ArrayList<>();
-        addFilesToList(folder, listOfFiles, "");
+        for (FileEntry entry: listFiles(dir))
+            listOfFiles.add(new Pair<>(entry.getName(), entry.read()));
         return listOfFiles;
     }
 
+    @Override
+    public List<FileEntry> listFiles(String dir) throws IOException {
+        Path root = Paths.get(dir);
+        List<FileEntry> entries = new ArrayList<>();
+        if (!Files.isDirectory(root))
+            return entries;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>(){
+            @Override public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    String name = root.relativize(file).toString().replace(File.separatorChar, '\\');
+                    entries.add(new FileEntry(name, attrs.size(), attrs.lastModifiedTime().toMillis(), () -> Files.newInputStream(file), file));
+                }
+                return CONTINUE;
+            }
+        });
+        return entries;
+    }
+
     @Override
     public void clearDirectory(String dir){
         File directoryFile = Paths.get(dir).toFile();
@@ -125,6 +176,11 @@ public class FolderProvider implements IDataProvider {
         Files.write(pathToFile, bytes, Files.exists(pathToFile) ? StandardOpenOption.APPEND : StandardOpenOption.CREATE);
     }
 
+    @Override
+    public boolean exists(String name) {
+        return Files.exists(path.resolve(name));
+    }
+
     private void purgeDirectory(File dir) {
         for (File file: dir.listFiles()) {
             if (file.isDirectory()) {
@@ -136,22 +192,4 @@ public class FolderProvider implements IDataProvider {
             file.delete();
         }
     }
-
-    private void addFilesToList(File dir, List<Pair<String, byte[]>> listOfFiles, String prefix) throws IOException{
-        if(dir == null || dir.listFiles() == null){
-            return;
-        }
-        for (File entry : dir.listFiles()) {
-            if (entry.isFile()) {
-                String name = entry.getName();
-                if (!prefix.isEmpty())
-                    name = prefix + "\\" + name;
-                listOfFiles.add(new Pair<>(name, Files.readAllBytes(entry.toPath())));
-            }
-            else {
-                String newPrefix = (prefix.isEmpty()) ? entry.getName() : prefix + "\\" + entry.getName();
-                addFilesToList(entry, listOfFiles, newPrefix);
-            }
-        }
-    }
 }
@@ -3,12 +3,19 @@ package utils.data;
 import javafx.util.Pair;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.util.List;
 
 public interface IDataProvider {
     byte[] read(String name) throws IOException;
     void write(String name, byte[] bytes) throws IOException;
+    InputStream openRead(String name) throws IOException;   // Чтение файла потоком, без загрузки целиком
+    OutputStream openWrite(String name) throws IOException; // Перезаписывает файл, создавая недостающие папки
+    SeekableByteChannel openChannel(String name) throws IOException; // Чтение с произвольным доступом
     void delete(String name) throws IOException;
+    void move(String from, String to) throws IOException;   // Заменяет существующий файл to, по возможности атомарно
     void createDirectory(String name);
     String getCurrentRoot();
     void setCurrentRoot(String currentRoot);
@@ -16,6 +23,8 @@ public interface IDataProvider {
     String getOrigin();
     void setOrigin(String origin);
     List<Pair<String, byte[]>> walkThrough(String dir) throws IOException;
+    List<FileEntry> listFiles(String dir) throws IOException;
     void clearDirectory(String dir);
     void append(String name, byte[] bytes) throws IOException;
+    boolean exists(String name);
 }
@@ -1,7 +1,11 @@
 package utils.data;
 
 
+import java.io.InputStream;
+
 public interface IDataTransporter {
     byte[] get() throws TransporterException;
     void send(byte[] bytes) throws TransporterException;
+    InputStream openInputStream();  // Следующее сообщение в виде потока, без загрузки в память целиком
+    MessageOutputStream openOutputStream(); // Сообщение передается по частям, закрытие потока завершает его
 }
@@ -0,0 +1,9 @@
+package utils.data;
+
+import java.io.OutputStream;
+
+public abstract class MessageOutputStream extends OutputStream {
+    // Обрывает сообщение, если его не удалось дописать: получатель увидит ошибку, а не более короткое
+    // сообщение, похожее на полное. После обрыва close ничего не делает
+    public abstract void abort();
+}
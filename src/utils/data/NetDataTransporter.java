@@ -1,18 +1,27 @@
 package utils.data;
 
 import java.io.*;
-import java.nio.ByteBuffer;
 
 public class NetDataTransporter implements IDataTransporter {
-    private InputStream reader;
-    private OutputStream writer;
-    private ByteArrayOutputStream tempStream;
-    private int byteCount;
+    // Сообщение - последовательность кадров: заголовок (int) и данные.
+    // Младшие 31 бит заголовка - длина кадра, старший бит - признак того, что за кадром следует продолжение.
+    // Сообщение из одного кадра совпадает со старым форматом "длина + данные".
+    // Заголовок ABORT вместо очередного кадра означает, что отправитель не смог дописать сообщение
+    private static final int MORE_FLAG = 0x80000000;
+    private static final int ABORT = 0xFFFFFFFF;
+
+    private DataInputStream reader;
+    private DataOutputStream writer;
+    private int chunkSize;
 
     public NetDataTransporter(InputStream inputStream, OutputStream outputStream){
-        reader = inputStream;
-        writer = outputStream;
-        byteCount = 4096;
+        this(inputStream, outputStream, 64 * 1024);
+    }
+
+    public NetDataTransporter(InputStream inputStream, OutputStream outputStream, int chunkSize){
+        reader = new DataInputStream(inputStream);
+        writer = new DataOutputStream(outputStream);
+        this.chunkSize = chunkSize;
     }
 
     @Override
@@ -39,39 +48,66 @@ public class NetDataTransporter implements IDataTransporter {
         }
     }
 
+    @Override
+    public InputStream openInputStream() {
+        return new ChunkedInputStream();
+    }
+
+    @Override
+    public MessageOutputStream openOutputStream() {
+        return new ChunkedOutputStream();
+    }
+
     private byte[] read() throws IOException {
-        tempStream = new ByteArrayOutputStream();
-        int sum = 0;
-        int count;
-        byte[] buffer = new byte[byteCount];
-        count = reader.read(buffer);
-        if (count <= 0)
+        int header;
+        try {
+            header = reader.readInt();
+        } catch (EOFException e) {
             return new byte[0];
-        sum += (count - 4);
-        int dataLength = ByteBuffer.wrap(buffer, 0, 4).getInt();
-        tempStream.write(buffer, 4, count - 4);
-        while (sum < dataLength){
-            count = reader.read(buffer);
-            sum += count;
-            tempStream.write(buffer, 0, count);
-        }
-        byte[] bytes = tempStream.toByteArray();
-        closeStream(tempStream);
-        return bytes;
+        }
+        byte[] bytes = readChunk(header);
+        if ((header & MORE_FLAG) == 0)
+            return bytes; // Обычное сообщение из одного кадра читается без промежуточных копий
+        ByteArrayOutputStream tempStream = new ByteArrayOutputStream(bytes.length * 2);
+        tempStream.write(bytes);
+        do {
+            header = reader.readInt();
+            tempStream.write(readChunk(header));
+        } while ((header & MORE_FLAG) != 0);
+        return tempStream.toByteArray();
+    }
+
+    private byte[] readChunk(int header) throws IOException {
+        if (header == ABORT)
+            throw new IOException("Message was aborted by the sender");
+        int length = header & ~MORE_FLAG;
+        if (length <= chunkSize) {
+            byte[] bytes = new byte[length];
+            reader.readFully(bytes);
+            return bytes;
+        }
+        // Длине из заголовка верить нельзя: буфер большого кадра растет по мере прихода данных
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunkSize);
+        byte[] buffer = new byte[chunkSize];
+        while (length > 0) {
+            int count = reader.read(buffer, 0, Math.min(length, buffer.length));
+            if (count == -1)
+                throw new EOFException("Connection closed in the middle of a message");
+            bytes.write(buffer, 0, count);
+            length -= count;
+        }
+        return bytes.toByteArray();
     }
 
     private void write(byte[] bytes) throws IOException{
-        byte[] dataLength = ByteBuffer.allocate(4).putInt(bytes.length).array();
-        byte[] packet = new byte[dataLength.length + bytes.length];
-        System.arraycopy(dataLength, 0, packet, 0, dataLength.length);
-        System.arraycopy(bytes, 0, packet, dataLength.length, bytes.length);
-        writer.write(packet);
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+        writer.flush();
     }
 
     public void close(){
         closeStream(reader);
         closeStream(writer);
-        closeStream(tempStream);
     }
 
     private static void closeStream(Closeable stream) {
@@ -84,4 +120,105 @@ public class NetDataTransporter implements IDataTransporter {
             catch(IOException ex){ }
         }
     }
+
+    private class ChunkedInputStream extends InputStream {
+        private int remaining;
+        private boolean last;
+        private boolean aborted;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == -1) ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            while (remaining == 0) {
+                if (aborted)
+                    throw new IOException("Message was aborted by the sender");
+                if (last)
+                    return -1;
+                int header = reader.readInt();
+                if (header == ABORT) {
+                    aborted = true; // Повторные чтения, в том числе из close, тоже завершаются ошибкой
+                    continue;
+                }
+                remaining = header & ~MORE_FLAG;
+                last = (header & MORE_FLAG) == 0;
+            }
+            int count = reader.read(buffer, offset, Math.min(length, remaining));
+            if (count == -1)
+                throw new EOFException("Connection closed in the middle of a message");
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+
+        // Дочитывает сообщение до конца, чтобы следующее сообщение начиналось с заголовка
+        @Override
+        public void close() throws IOException {
+            byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) != -1) { }
+        }
+    }
+
+    private class ChunkedOutputStream extends MessageOutputStream {
+        private final byte[] buffer = new byte[chunkSize];
+        private int count;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length)
+                writeChunk(true);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length)
+                    writeChunk(true);
+                int toCopy = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, toCopy);
+                count += toCopy;
+                offset += toCopy;
+                length -= toCopy;
+            }
+        }
+
+        // Последний кадр пишется без флага продолжения, поэтому закрывать поток обязательно
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            writeChunk(false);
+            writer.flush();
+        }
+
+        @Override
+        public void abort() {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                writer.writeInt(ABORT);
+                writer.flush();
+            } catch (IOException e) { } // Соединение уже разорвано, получатель и так не примет сообщение
+        }
+
+        private void writeChunk(boolean more) throws IOException {
+            writer.writeInt(more ? (count | MORE_FLAG) : count);
+            writer.write(buffer, 0, count);
+            count = 0;
+        }
+    }
 }
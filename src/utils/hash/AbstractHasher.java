@@ -0,0 +1,68 @@
+package utils.hash;
+
+import utils.data.FileEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+abstract class AbstractHasher implements IHasher {
+    // Наследнику достаточно уметь считать хеш по частям, чтение из потока и файла общие
+    private static final int MAP_THRESHOLD = 1024 * 1024;
+    private static final int MAP_SEGMENT = 64 * 1024 * 1024;
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    // Состояние может быть общим для вызовов в одном потоке, если хеш считается за один вызов
+    protected abstract IHashState newState();
+
+    @Override
+    public IHashState start() {
+        return newState();
+    }
+
+    @Override
+    public byte[] hash(byte[] data) {
+        IHashState state = newState();
+        state.update(ByteBuffer.wrap(data));
+        return state.finish();
+    }
+
+    @Override
+    public byte[] hash(InputStream input) throws IOException {
+        IHashState state = newState();
+        byte[] buffer = buffers.get();
+        int len;
+        while ((len = input.read(buffer)) > 0)
+            state.update(ByteBuffer.wrap(buffer, 0, len));
+        return state.finish();
+    }
+
+    @Override
+    public byte[] hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                try (InputStream input = Files.newInputStream(file)) {
+                    return hash(input);
+                }
+            }
+            IHashState state = newState();
+            for (long position = 0; position < size; position += MAP_SEGMENT)
+                state.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SEGMENT, size - position)));
+            return state.finish();
+        }
+    }
+
+    @Override
+    public byte[] hash(FileEntry entry) throws IOException {
+        if (entry.getFile() != null)
+            return hash(entry.getFile());
+        try (InputStream input = entry.open()) {
+            return hash(input);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package utils.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class DigestHasher extends AbstractHasher {
+    // MessageDigest создается один раз на поток, а не на каждый вызов
+    private final String algorithm;
+    private final ThreadLocal<MessageDigest> digests;
+
+    public DigestHasher(String algorithm){
+        this.algorithm = algorithm;
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(algorithm + " is not supported", e);
+            }
+        });
+        digests.get(); // Неподдерживаемый алгоритм - ошибка при создании, а не при первом хешировании
+    }
+
+    @Override
+    public String getName() {
+        return algorithm.toLowerCase();
+    }
+
+    @Override
+    protected IHashState newState() {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        return wrap(digest);
+    }
+
+    // Хеш по частям может считаться одновременно с другими, поэтому ему нужен свой MessageDigest
+    @Override
+    public IHashState start() {
+        try {
+            return wrap(MessageDigest.getInstance(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not supported", e);
+        }
+    }
+
+    private static IHashState wrap(MessageDigest digest){
+        return new IHashState() {
+            @Override
+            public void update(ByteBuffer data) {
+                digest.update(data);
+            }
+
+            @Override
+            public byte[] finish() {
+                return digest.digest();
+            }
+        };
+    }
+}
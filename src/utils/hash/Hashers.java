@@ -0,0 +1,50 @@
+package utils.hash;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Hashers {
+    public static final IHasher MD5 = new DigestHasher("MD5");
+    public static final IHasher SHA256 = new DigestHasher("SHA-256");
+    public static final IHasher XXHASH64 = new XxHash64();
+
+    // Для поиска измененных файлов достаточно быстрого хеша, для хранилища содержимого - стойкого
+    public static IHasher CHANGE_DETECTION = XXHASH64;
+    public static IHasher CONTENT_ADDRESS = SHA256;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Map<String, IHasher> hashers = new ConcurrentHashMap<>();
+
+    static {
+        register(MD5);
+        register(SHA256);
+        register(XXHASH64);
+    }
+
+    public static void register(IHasher hasher){
+        hashers.put(hasher.getName(), hasher);
+    }
+
+    // null, если такого хеша нет
+    public static IHasher forName(String name){
+        return hashers.get(name.toLowerCase());
+    }
+
+    public static String toHex(byte[] hash){
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    public static byte[] fromHex(String hex){
+        if (hex.length() % 2 != 0)
+            throw new IllegalArgumentException("Odd hex length: " + hex);
+        byte[] hash = new byte[hex.length() / 2];
+        for (int i = 0; i < hash.length; i++)
+            hash[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        return hash;
+    }
+}
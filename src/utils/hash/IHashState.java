@@ -0,0 +1,8 @@
+package utils.hash;
+
+import java.nio.ByteBuffer;
+
+public interface IHashState {
+    void update(ByteBuffer data);
+    byte[] finish();
+}
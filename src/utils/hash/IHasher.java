@@ -0,0 +1,16 @@
+package utils.hash;
+
+import utils.data.FileEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+public interface IHasher {
+    String getName();
+    byte[] hash(byte[] data);
+    byte[] hash(InputStream input) throws IOException; // Поток читается до конца и не закрывается
+    byte[] hash(Path file) throws IOException;         // Большие файлы отображаются в память
+    byte[] hash(FileEntry entry) throws IOException;
+    IHashState start(); // Хеш по частям, для данных, которые целиком нигде не лежат
+}
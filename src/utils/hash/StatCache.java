@@ -0,0 +1,101 @@
+package utils.hash;
+
+import utils.data.FileEntry;
+import utils.data.IDataProvider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class StatCache {
+    // Индекс рабочей копии: имя, размер, время изменения и хеш файла. Файл с теми же размером и временем
+    // изменения считается неизменным и не читается. Первая строка - имя алгоритма, остальные
+    // "<размер>\t<время изменения>\t<хеш>\t<имя файла>"
+    public static String FILE_NAME;
+    // Файл, измененный почти одновременно с записью индекса, мог измениться еще раз с тем же временем,
+    // такие файлы в индекс не попадают
+    private static long RACY_WINDOW_MILLIS;
+
+    static {
+        FILE_NAME = ".vcindex";
+        RACY_WINDOW_MILLIS = 2000;
+    }
+
+    private final IHasher hasher;
+    private final Map<String, Entry> cached;
+    private final Map<String, Entry> seen = new HashMap<>(); // Сохраняются только файлы, которые есть сейчас
+    private int misses;
+
+    private StatCache(IHasher hasher, Map<String, Entry> cached){
+        this.hasher = hasher;
+        this.cached = cached;
+    }
+
+    // Отсутствующий, поврежденный или посчитанный другим алгоритмом индекс дает пустой кеш
+    public static StatCache load(IDataProvider dataProvider, String path, IHasher hasher){
+        Map<String, Entry> cached = new HashMap<>();
+        if (!dataProvider.exists(path))
+            return new StatCache(hasher, cached);
+        try {
+            String[] lines = new String(dataProvider.read(path), StandardCharsets.UTF_8).split("\n");
+            if (!lines[0].equals(hasher.getName()))
+                return new StatCache(hasher, cached);
+            for (int i = 1; i < lines.length; i++) {
+                if (lines[i].isEmpty())
+                    continue;
+                String[] fields = lines[i].split("\t", 4);
+                if (fields.length != 4)
+                    return new StatCache(hasher, new HashMap<>());
+                cached.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Hashers.fromHex(fields[2])));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            cached.clear();
+        }
+        return new StatCache(hasher, cached);
+    }
+
+    public IHasher getHasher() {
+        return hasher;
+    }
+
+    public byte[] hash(FileEntry file) throws IOException {
+        Entry entry = cached.get(file.getName());
+        if (entry == null || entry.size != file.getSize() || entry.lastModified != file.getLastModified()) {
+            entry = new Entry(file.getSize(), file.getLastModified(), hasher.hash(file));
+            misses++;
+        }
+        seen.put(file.getName(), entry);
+        return entry.hash;
+    }
+
+    // Сколько файлов пришлось прочитать
+    public int getMisses() {
+        return misses;
+    }
+
+    public void save(IDataProvider dataProvider, String path) throws IOException {
+        long racyFrom = System.currentTimeMillis() - RACY_WINDOW_MILLIS;
+        StringBuilder sb = new StringBuilder(hasher.getName()).append('\n');
+        for (Map.Entry<String, Entry> entry: seen.entrySet()) {
+            Entry value = entry.getValue();
+            if (value.lastModified >= racyFrom)
+                continue;
+            sb.append(value.size).append('\t').append(value.lastModified).append('\t')
+                    .append(Hashers.toHex(value.hash)).append('\t').append(entry.getKey()).append('\n');
+        }
+        dataProvider.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final byte[] hash;
+
+        Entry(long size, long lastModified, byte[] hash){
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
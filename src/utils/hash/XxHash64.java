@@ -0,0 +1,103 @@
+package utils.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class XxHash64 extends AbstractHasher {
+    // xxHash64 (seed 0): некриптографический, но в разы быстрее MD5. Подходит для поиска изменений,
+    // для адресации содержимого нужен стойкий хеш. Результат - 8 байт в порядке big-endian
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    @Override
+    public String getName() {
+        return "xxhash64";
+    }
+
+    @Override
+    protected IHashState newState() {
+        return new XxState();
+    }
+
+    private static long round(long acc, long input){
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value){
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    private static class XxState implements IHashState {
+        private long v1 = PRIME1 + PRIME2;
+        private long v2 = PRIME2;
+        private long v3 = 0;
+        private long v4 = -PRIME1;
+        private long total;
+        private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN); // Неполная полоса из 32 байт
+
+        @Override
+        public void update(ByteBuffer data) {
+            ByteBuffer input = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            total += input.remaining();
+            if (pending.position() > 0) {
+                while (pending.hasRemaining() && input.hasRemaining())
+                    pending.put(input.get());
+                if (pending.hasRemaining())
+                    return;
+                pending.flip();
+                stripe(pending);
+                pending.clear();
+            }
+            while (input.remaining() >= 32)
+                stripe(input);
+            pending.put(input);
+        }
+
+        private void stripe(ByteBuffer input){
+            v1 = round(v1, input.getLong());
+            v2 = round(v2, input.getLong());
+            v3 = round(v3, input.getLong());
+            v4 = round(v4, input.getLong());
+        }
+
+        @Override
+        public byte[] finish() {
+            long hash;
+            if (total >= 32) {
+                hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                hash = mergeRound(hash, v1);
+                hash = mergeRound(hash, v2);
+                hash = mergeRound(hash, v3);
+                hash = mergeRound(hash, v4);
+            } else {
+                hash = PRIME5;
+            }
+            hash += total;
+            pending.flip();
+            while (pending.remaining() >= 8) {
+                hash ^= round(0, pending.getLong());
+                hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            }
+            if (pending.remaining() >= 4) {
+                hash ^= (pending.getInt() & 0xFFFFFFFFL) * PRIME1;
+                hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            }
+            while (pending.hasRemaining()) {
+                hash ^= (pending.get() & 0xFF) * PRIME5;
+                hash = Long.rotateLeft(hash, 11) * PRIME1;
+            }
+            hash ^= hash >>> 33;
+            hash *= PRIME2;
+            hash ^= hash >>> 29;
+            hash *= PRIME3;
+            hash ^= hash >>> 32;
+            return ByteBuffer.allocate(8).putLong(hash).array();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package utils.serializers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BinarySerializer implements ISerializer {
+    // Формат: MAGIC, тег класса (int), затем значения полей в порядке их имен.
+    // Строки и массивы предваряются длиной (-1 для null), byte[] пишется как есть.
+    // У сериализуемого объекта должен быть пустой конструктор.
+    // Экземпляр обслуживает одно соединение: если собеседник прислал пакет старого формата (Properties),
+    // ответы ему тоже пишутся в старом формате
+
+    private static final byte MAGIC = (byte) 0xB5;
+
+    private final Map<Integer, Class<?>> tagClassMap;
+    private final Map<Class<?>, Integer> classTagMap;
+    private final ISerializer fallback;
+    private volatile boolean legacyPeer;
+
+    public BinarySerializer(){
+        this(new Serializer());
+    }
+
+    public BinarySerializer(ISerializer fallback){
+        this.fallback = fallback;
+        tagClassMap = new HashMap<>();
+        classTagMap = new HashMap<>();
+    }
+
+    public BinarySerializer register(int tag, Class<?> clazz){
+        if (tagClassMap.containsKey(tag))
+            throw new IllegalArgumentException("Tag " + tag + " is already registered for " + tagClassMap.get(tag).getName());
+        ClassCodec.forClass(clazz); // План доступа строится заранее, а не на первом пакете
+        tagClassMap.put(tag, clazz);
+        classTagMap.put(clazz, tag);
+        return this;
+    }
+
+    @Override
+    public Object deserialize(byte[] data) {
+        if (data.length == 0 || data[0] != MAGIC) {
+            if (fallback == null)
+                return null;
+            if (data.length > 0)
+                legacyPeer = true; // Пакет старого формата (Properties)
+            return fallback.deserialize(data);
+        }
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+        try {
+            int tag = inputStream.readInt();
+            Class<?> clazz = tagClassMap.get(tag);
+            if (clazz == null) {
+                System.out.println("Unknown type tag in binary packet: " + tag);
+                return null;
+            }
+            return readObject(inputStream, clazz);
+        } catch (IOException | InstantiationException e) {
+            System.out.println("An error occurred while reading binary packet: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] serialize(Object object) {
+        Integer tag = classTagMap.get(object.getClass());
+        if (tag == null || (legacyPeer && fallback != null))
+            return fallback == null ? new byte[0] : fallback.serialize(object);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(64);
+        DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+        try {
+            outputStream.writeByte(MAGIC);
+            outputStream.writeInt(tag);
+            writeObject(outputStream, object);
+            outputStream.flush();
+        } catch (IOException e) {
+            System.out.println("An error occurred while writing binary packet: " + e.getMessage());
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private void writeObject(DataOutputStream out, Object object) throws IOException {
+        for (ClassCodec.FieldAccessor field: ClassCodec.forClass(object.getClass()).getFields())
+            writeValue(out, field.getType(), field.get(object));
+    }
+
+    private Object readObject(DataInputStream in, Class<?> clazz) throws IOException, InstantiationException {
+        ClassCodec codec = ClassCodec.forClass(clazz);
+        Object result = codec.newInstance();
+        for (ClassCodec.FieldAccessor field: codec.getFields())
+            field.set(result, readValue(in, field.getType()));
+        return result;
+    }
+
+    private void writeValue(DataOutputStream out, Class<?> type, Object value) throws IOException {
+        if (type == Integer.TYPE)
+            out.writeInt((Integer) value);
+        else if (type == Boolean.TYPE)
+            out.writeBoolean((Boolean) value);
+        else if (type == Long.TYPE)
+            out.writeLong((Long) value);
+        else if (type == Byte.TYPE)
+            out.writeByte((Byte) value);
+        else if (type == Short.TYPE)
+            out.writeShort((Short) value);
+        else if (type == Character.TYPE)
+            out.writeChar((Character) value);
+        else if (type == Double.TYPE)
+            out.writeDouble((Double) value);
+        else if (type == Float.TYPE)
+            out.writeFloat((Float) value);
+        else if (value == null)
+            out.writeInt(-1);
+        else if (type == String.class)
+            writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+        else if (type == byte[].class)
+            writeBytes(out, (byte[]) value);
+        else if (type.isArray()) {
+            int length = Array.getLength(value);
+            out.writeInt(length);
+            Class<?> componentType = type.getComponentType();
+            for (int i = 0; i < length; i++)
+                writeValue(out, componentType, Array.get(value, i));
+        }
+        else {
+            out.writeInt(0);
+            writeObject(out, value);
+        }
+    }
+
+    private Object readValue(DataInputStream in, Class<?> type) throws IOException, InstantiationException {
+        if (type == Integer.TYPE)
+            return in.readInt();
+        else if (type == Boolean.TYPE)
+            return in.readBoolean();
+        else if (type == Long.TYPE)
+            return in.readLong();
+        else if (type == Byte.TYPE)
+            return in.readByte();
+        else if (type == Short.TYPE)
+            return in.readShort();
+        else if (type == Character.TYPE)
+            return in.readChar();
+        else if (type == Double.TYPE)
+            return in.readDouble();
+        else if (type == Float.TYPE)
+            return in.readFloat();
+
+        int length = in.readInt();
+        if (length == -1)
+            return null;
+        // Каждый элемент занимает хотя бы байт, поэтому длина не может превышать остаток пакета
+        if (length < 0 || length > in.available())
+            throw new IOException("Invalid length " + length + " with " + in.available() + " bytes left");
+        if (type == String.class)
+            return new String(readBytes(in, length), StandardCharsets.UTF_8);
+        else if (type == byte[].class)
+            return readBytes(in, length);
+        else if (type.isArray()) {
+            Class<?> componentType = type.getComponentType();
+            Object array = Array.newInstance(componentType, length);
+            for (int i = 0; i < length; i++)
+                Array.set(array, i, readValue(in, componentType));
+            return array;
+        }
+        return readObject(in, type);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
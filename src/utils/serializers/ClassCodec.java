@@ -0,0 +1,126 @@
+package utils.serializers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ClassCodec {
+    // План доступа к полям класса. Строится один раз на класс и переиспользуется всеми сериализаторами
+    private static final Map<Class<?>, ClassCodec> codecs = new ConcurrentHashMap<>();
+    private static final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private final Class<?> clazz;
+    private final MethodHandle constructor;
+    private final FieldAccessor[] fields;
+
+    public static ClassCodec forClass(Class<?> clazz){
+        return codecs.computeIfAbsent(clazz, ClassCodec::new);
+    }
+
+    public static Class<?> forName(String className) throws ClassNotFoundException {
+        Class<?> clazz = classes.get(className);
+        if (clazz == null) {
+            clazz = Class.forName(className);
+            classes.put(className, clazz);
+        }
+        return clazz;
+    }
+
+    private ClassCodec(Class<?> clazz){
+        this.clazz = clazz;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle constructorHandle;
+        try {
+            Constructor<?> constr = clazz.getDeclaredConstructor();
+            constr.setAccessible(true);
+            constructorHandle = lookup.unreflectConstructor(constr).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            constructorHandle = null; // Класс можно записать, но не восстановить
+        }
+        this.constructor = constructorHandle;
+
+        List<Field> fieldsList = ClassToPropertiesConverter.buildFieldsList(clazz);
+        Field[] declared = fieldsList.toArray(new Field[fieldsList.size()]);
+        Arrays.sort(declared, Comparator.comparing(Field::getName)); // Порядок getDeclaredFields не гарантирован
+        fields = new FieldAccessor[declared.length];
+        for (int i = 0; i < declared.length; i++)
+            fields[i] = new FieldAccessor(lookup, declared[i]);
+    }
+
+    public Class<?> getType() {
+        return clazz;
+    }
+
+    public FieldAccessor[] getFields() {
+        return fields;
+    }
+
+    public Object newInstance() throws InstantiationException {
+        if (constructor == null)
+            throw new InstantiationException("Class " + clazz.getName() + " has no empty constructor");
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            InstantiationException exception = new InstantiationException("Can not create " + clazz.getName());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    public static class FieldAccessor {
+        private final String name;
+        private final Class<?> type;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        private FieldAccessor(MethodHandles.Lookup lookup, Field field){
+            this.name = field.getName();
+            this.type = field.getType();
+            try {
+                field.setAccessible(true);
+                this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                this.setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("No access to field " + field, e);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public Object get(Object target){
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public void set(Object target, Object value){
+            try {
+                setter.invokeExact(target, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
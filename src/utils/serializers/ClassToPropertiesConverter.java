@@ -1,12 +1,12 @@
 package utils.serializers;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
@@ -62,7 +62,7 @@ public class ClassToPropertiesConverter
         private Properties m_propData;
         private int m_iClassCount;
         private int m_iArrayCount;
-        private HashMap<IdentityKeyWrapper, String> m_hsProcessedObjects;
+        private IdentityHashMap<Object, String> m_hsProcessedObjects;
 
 
         protected Properties toProperties(Object obj)
@@ -70,7 +70,7 @@ public class ClassToPropertiesConverter
             m_propData = new Properties();
             m_iClassCount = 0;
             m_iArrayCount = 0;
-            m_hsProcessedObjects = new HashMap<IdentityKeyWrapper, String>();
+            m_hsProcessedObjects = new IdentityHashMap<Object, String>();
             String strMainObjectID = storeObject(obj);
             m_propData.put("mainObjectID", String.valueOf(strMainObjectID));
             return m_propData;
@@ -101,9 +101,7 @@ public class ClassToPropertiesConverter
 
         private String storeObjectImpl(Object obj)
         {
-            IdentityKeyWrapper key = new IdentityKeyWrapper(obj);
-
-            String objID = m_hsProcessedObjects.get(key);
+            String objID = m_hsProcessedObjects.get(obj);
             if (objID != null)
             {
                 return objID;
@@ -111,79 +109,32 @@ public class ClassToPropertiesConverter
             m_iClassCount++;
             String strResult = "o"+m_iClassCount;
 
-            m_hsProcessedObjects.put(key, strResult);
+            m_hsProcessedObjects.put(obj, strResult);
 
             String strKeyPrefix = strResult+".";
-            String strMetadataPrefix = strKeyPrefix+"m.";
             String strFieldPrefix = strKeyPrefix+"f.";
 
             Class<?> clazz = obj.getClass();
             m_propData.put(strKeyPrefix+"className", clazz.getName());
 
-            List<Field> fieldsList = buildFieldsList(clazz);
-
-            for (Field field : fieldsList)
+            for (ClassCodec.FieldAccessor field : ClassCodec.forClass(clazz).getFields())
             {
                 Class<?> fieldType = field.getType();
                 String strFieldName = field.getName();
 
-                String strFieldValue = "";
-                try
+                String strFieldValue;
+                Object value = field.get(obj);
+                if (fieldType.isPrimitive())
                 {
-                    try
-                    {
-                        field.setAccessible(true);
-                    }
-                    catch (SecurityException ex)
-                    {
-                        System.out.println(
-                                "Security exception / Ошибка безопасности:"+ex.getMessage());
-                    }
-                    if (fieldType.equals(Integer.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getInt(obj));
-                    }
-                    else if (fieldType.equals(Character.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getChar(obj));
-                    }
-                    else if (fieldType.equals(Byte.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getByte(obj));
-                    }
-                    else if (fieldType.equals(Short.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getShort(obj));
-                    }
-                    else if (fieldType.equals(Long.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getLong(obj));
-                    }
-                    else if (fieldType.equals(Boolean.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getBoolean(obj));
-                    }
-                    else if (fieldType.equals(Double.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getDouble(obj));
-                    }
-                    else if (fieldType.equals(Float.TYPE))
-                    {
-                        strFieldValue = String.valueOf(field.getFloat(obj));
-                    }
-                    else
-                    {
-                        strFieldValue = storeObject(field.get(obj));
-                    }
+                    strFieldValue = String.valueOf(value);
                 }
-                catch (IllegalAccessException ex)
+                else
                 {
-                    System.out.println("No access to field / Нет доступа к полю:"+ex.getMessage());
-                    strFieldValue = null;
+                    strFieldValue = storeObject(value);
                 }
                 if (strFieldValue != null)
                 {
-                    m_propData.setProperty(strFieldPrefix+strFieldName, String.valueOf(strFieldValue));
+                    m_propData.setProperty(strFieldPrefix+strFieldName, strFieldValue);
                 }
                 else
                 {
@@ -200,9 +151,7 @@ public class ClassToPropertiesConverter
             {
                 return null;
             }
-            IdentityKeyWrapper key = new IdentityKeyWrapper(obj);
-
-            String objID = m_hsProcessedObjects.get(key);
+            String objID = m_hsProcessedObjects.get(obj);
             if (objID != null)
             {
                 return objID;
@@ -210,7 +159,7 @@ public class ClassToPropertiesConverter
             m_iArrayCount++;
             String strResult = "a"+m_iArrayCount;
 
-            m_hsProcessedObjects.put(key, strResult);
+            m_hsProcessedObjects.put(obj, strResult);
 
             Class<?> clazz = obj.getClass();
             Class<?> fieldType = clazz.getComponentType();
@@ -323,30 +272,15 @@ public class ClassToPropertiesConverter
                 try
                 {
                     String strKeyPrefix = strID+".";
-                    String strMetadataPrefix = strKeyPrefix+"m.";
                     String strFieldPrefix = strKeyPrefix+"f.";
 
                     String strClassType = (String) m_propData.get(strKeyPrefix+"className");
 
-                    Class<?> clazz = Class.forName(strClassType);
-                    Constructor<?> constr = clazz.getDeclaredConstructor(new Class[0]);
-
-                    try
-                    {
-                        constr.setAccessible(true);
-                    }
-                    catch (SecurityException ex)
-                    {
-                        System.out.println(
-                                "Security exception / Ошибка безопасности:"+ex.getMessage());
-                    }
-
-                    result = constr.newInstance();
+                    ClassCodec codec = ClassCodec.forClass(ClassCodec.forName(strClassType));
+                    result = codec.newInstance();
                     m_hsProcessedObjects.put(strID, result);
 
-                    List<Field> fieldsList = buildFieldsList(clazz);
-
-                    for (Field field : fieldsList)
+                    for (ClassCodec.FieldAccessor field : codec.getFields())
                     {
                         Class<?> fieldType = field.getType();
                         String strFieldName = field.getName();
@@ -354,65 +288,49 @@ public class ClassToPropertiesConverter
                         boolean bIsNull =
                                 Boolean.parseBoolean(m_propData.getProperty(strFieldPrefix+strFieldName+".isNull", "false"));
 
-                        try
+                        if (fieldType.equals(Integer.TYPE))
                         {
-                            try
-                            {
-                                field.setAccessible(true);
-                            }
-                            catch (SecurityException ex)
-                            {
-                                System.out.println(
-                                        "Security exception / Ошибка безопасности:"+ex.getMessage());
-                            }
-                            if (fieldType.equals(Integer.TYPE))
-                            {
-                                field.setInt(result, Integer.parseInt(strFieldValue));
-                            }
-                            else if (fieldType.equals(Character.TYPE))
-                            {
-                                field.setChar(result, strFieldValue.charAt(0));
-                            }
-                            else if (fieldType.equals(Byte.TYPE))
-                            {
-                                field.setByte(result, Byte.parseByte(strFieldValue));
-                            }
-                            else if (fieldType.equals(Short.TYPE))
-                            {
-                                field.setShort(result, Short.parseShort(strFieldValue));
-                            }
-                            else if (fieldType.equals(Long.TYPE))
-                            {
-                                field.setLong(result, Long.parseLong(strFieldValue));
-                            }
-                            else if (fieldType.equals(Boolean.TYPE))
-                            {
-                                field.setBoolean(result, Boolean.parseBoolean(strFieldValue));
-                            }
-                            else if (fieldType.equals(Double.TYPE))
-                            {
-                                field.setDouble(result, Double.parseDouble(strFieldValue));
-                            }
-                            else if (fieldType.equals(Float.TYPE))
+                            field.set(result, Integer.parseInt(strFieldValue));
+                        }
+                        else if (fieldType.equals(Character.TYPE))
+                        {
+                            field.set(result, strFieldValue.charAt(0));
+                        }
+                        else if (fieldType.equals(Byte.TYPE))
+                        {
+                            field.set(result, Byte.parseByte(strFieldValue));
+                        }
+                        else if (fieldType.equals(Short.TYPE))
+                        {
+                            field.set(result, Short.parseShort(strFieldValue));
+                        }
+                        else if (fieldType.equals(Long.TYPE))
+                        {
+                            field.set(result, Long.parseLong(strFieldValue));
+                        }
+                        else if (fieldType.equals(Boolean.TYPE))
+                        {
+                            field.set(result, Boolean.parseBoolean(strFieldValue));
+                        }
+                        else if (fieldType.equals(Double.TYPE))
+                        {
+                            field.set(result, Double.parseDouble(strFieldValue));
+                        }
+                        else if (fieldType.equals(Float.TYPE))
+                        {
+                            field.set(result, Float.parseFloat(strFieldValue));
+                        }
+                        else
+                        {
+                            if (bIsNull)
                             {
-                                field.setFloat(result, Float.parseFloat(strFieldValue));
+                                field.set(result, null);
                             }
                             else
                             {
-                                if (bIsNull)
-                                {
-                                    field.set(result, null);
-                                }
-                                else
-                                {
-                                    field.set(result, restoreObject(strFieldValue));
-                                }
+                                field.set(result, restoreObject(strFieldValue));
                             }
                         }
-                        catch (IllegalAccessException ex)
-                        {
-                            System.out.println("No access to field / Нет доступа к полю:"+ex.getMessage());
-                        }
                     }
 
                 }
@@ -476,7 +394,7 @@ public class ClassToPropertiesConverter
                     }
                     else
                     {
-                        fieldType = Class.forName(strComponentType);
+                        fieldType = ClassCodec.forName(strComponentType);
                     }
                     result = Array.newInstance(fieldType, iLength);
                     m_hsProcessedObjects.put(strID, result);
@@ -518,7 +436,7 @@ public class ClassToPropertiesConverter
                         }
                         else if (fieldType.equals(Float.TYPE))
                         {
-                            Array.setDouble(result, iIdx, Float.parseFloat(strFieldValue));
+                            Array.setFloat(result, iIdx, Float.parseFloat(strFieldValue));
                         }
                         else
                         {
@@ -544,34 +462,4 @@ public class ClassToPropertiesConverter
         }
     }
 
-
-    static class IdentityKeyWrapper
-    {
-        private Object m_key;
-
-        IdentityKeyWrapper(Object key)
-        {
-            m_key = key;
-        }
-
-        public Object getKey()
-        {
-            return m_key;
-        }
-
-        public boolean equals(Object obj)
-        {
-            if (obj instanceof IdentityKeyWrapper)
-            {
-                return ((IdentityKeyWrapper)obj).m_key == m_key;
-            }
-            return false;
-        }
-
-        public int hashCode()
-        {
-            return System.identityHashCode(m_key);
-        }
-    }
-
 }
@@ -0,0 +1,362 @@
+package web_server;
+
+import utils.data.IDataProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CommitLog {
+    // Лог коммитов репозитория: текст в log.txt и индекс рядом с ним. Запись индекса фиксированной длины:
+    // смещение и длина записи в тексте, время коммита, хеши пользователя и версии. Запросы читают индекс
+    // с нужного места и только подходящие записи текста. Совпадение хеша проверяется по заголовку записи.
+    // Индекс лога, записанного до его появления, достраивается разбором текста при первом обращении
+    private static final int RECORD_SIZE = 32;
+    private static final int BATCH = 1024; // Записей индекса за одно чтение
+    private static final int TEXT_CHUNK = 1024 * 1024; // Байт текста за одно чтение при достраивании индекса
+    private static final Pattern HEADER = Pattern.compile("^(.*) commits following changes at (\\d{2}-\\d{2}-\\d{4} \\d{2}:\\d{2}) \\(version (.*)\\):\r?$");
+    private static final String HEADER_MARKER = " commits following changes at ";
+    public static final String DATE_FORMAT = "dd-MM-yyyy HH:mm";
+    private static final int MATCH = 0; // Ответы фильтра записей индекса
+    private static final int SKIP = 1;
+    private static final int STOP = 2;
+
+    private final IDataProvider dataProvider;
+    private final String logPath;
+    private final String indexPath;
+    private long entries = -1; // Записей в индексе; -1, пока индекс не сверен с текстом
+    private long indexedTo;    // Сколько байт текста покрыто индексом
+
+    public CommitLog(IDataProvider dataProvider, String logPath, String indexPath){
+        this.dataProvider = dataProvider;
+        this.logPath = logPath;
+        this.indexPath = indexPath;
+    }
+
+    public static class Page {
+        private final byte[] text;
+        private final long before;
+
+        Page(byte[] text, long before){
+            this.text = text;
+            this.before = before;
+        }
+
+        public byte[] getText() {
+            return text;
+        }
+
+        // Номер записи, с которой продолжить запрос, или -1, если страница последняя. Для запросов назад
+        // это самая ранняя запись страницы, для since - первая запись после страницы
+        public long getBefore() {
+            return before;
+        }
+    }
+
+    public synchronized void append(String user, String version, long time, byte[] entry) throws IOException {
+        ensureIndexed();
+        dataProvider.append(logPath, entry);
+        dataProvider.append(indexPath, record(indexedTo, entry.length, time, user, version));
+        indexedTo += entry.length;
+        entries++;
+    }
+
+    // Последние limit записей перед записью с номером before (-1 - с конца)
+    public Page last(int limit, long before) throws IOException {
+        return collect(before, limit, record -> MATCH, null);
+    }
+
+    public Page byUser(String user, int limit, long before) throws IOException {
+        int userHash = user.hashCode();
+        return collect(before, limit, record -> (record.userHash == userHash) ? MATCH : SKIP,
+                header -> header.group(1).equals(user));
+    }
+
+    // Записи с временем from <= t < to. Время в индексе растет, поэтому начало ищется двоичным поиском
+    public Page range(long from, long to, int limit, long before) throws IOException {
+        long count = ensureIndexed();
+        if (count == 0)
+            return new Page(new byte[0], -1);
+        try (SeekableByteChannel index = open(indexPath)) {
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (readRecords(index, middle, 1).get(0).time < to)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            before = (before < 0) ? low : Math.min(before, low);
+        }
+        return collect(before, limit, record -> (record.time < from) ? STOP : MATCH, null);
+    }
+
+    // Первые limit записей после коммита version; null, если такой версии в логе нет.
+    // Продолжение (from >= 0) начинается с записи from без поиска версии
+    public Page since(String version, int limit, long from) throws IOException {
+        long count = ensureIndexed();
+        if (from >= 0)
+            return page(Math.min(from, count), count, limit);
+        if (count == 0)
+            return null;
+        int versionHash = version.hashCode();
+        try (SeekableByteChannel index = open(indexPath); SeekableByteChannel log = open(logPath)) {
+            for (long end = count; end > 0; end -= BATCH) {
+                long start = Math.max(0, end - BATCH);
+                List<Record> records = readRecords(index, start, (int) (end - start));
+                for (int i = records.size() - 1; i >= 0; i--) {
+                    Record record = records.get(i);
+                    if (record.versionHash != versionHash)
+                        continue;
+                    Matcher header = header(readText(log, record));
+                    if (header == null || !header.group(3).equals(version))
+                        continue;
+                    return page(start + i + 1, count, limit);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Записи с first вперед, не больше limit
+    private Page page(long first, long count, int limit) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        if (first < count) {
+            try (SeekableByteChannel index = open(indexPath); SeekableByteChannel log = open(logPath)) {
+                for (Record entry: readRecords(index, first, (int) Math.min(limit, count - first)))
+                    text.write(readText(log, entry));
+            }
+        }
+        return new Page(text.toByteArray(), (count - first > limit) ? first + limit : -1);
+    }
+
+    private interface RecordFilter {
+        int test(Record record);
+    }
+
+    private interface HeaderFilter {
+        boolean test(Matcher header);
+    }
+
+    // Идет по индексу от before к началу, пока не наберет limit записей
+    private Page collect(long before, int limit, RecordFilter filter, HeaderFilter verify) throws IOException {
+        long count = ensureIndexed();
+        long end = (before < 0) ? count : Math.min(before, count);
+        List<byte[]> found = new ArrayList<>();
+        long earliest = -1;
+        if (end == 0)
+            return new Page(new byte[0], -1);
+        try (SeekableByteChannel index = open(indexPath); SeekableByteChannel log = open(logPath)) {
+            scan:
+            while (end > 0) {
+                long start = Math.max(0, end - BATCH);
+                List<Record> records = readRecords(index, start, (int) (end - start));
+                for (int i = records.size() - 1; i >= 0; i--) {
+                    if (found.size() == limit)
+                        break scan;
+                    Record record = records.get(i);
+                    int result = filter.test(record);
+                    if (result == STOP) {
+                        earliest = -1;
+                        break scan;
+                    }
+                    if (result == SKIP)
+                        continue;
+                    byte[] text = readText(log, record);
+                    if (verify != null) {
+                        Matcher header = header(text);
+                        if (header == null || !verify.test(header))
+                            continue;
+                    }
+                    found.add(text);
+                    earliest = start + i;
+                }
+                end = start;
+            }
+        }
+        Collections.reverse(found);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        for (byte[] entry: found)
+            text.write(entry);
+        return new Page(text.toByteArray(), (earliest > 0 && found.size() == limit) ? earliest : -1);
+    }
+
+    // Сверяет индекс с текстом и дописывает недостающие записи. Возвращает число записей
+    private synchronized long ensureIndexed() throws IOException {
+        long logSize = size(logPath);
+        if (entries >= 0 && indexedTo == logSize)
+            return entries;
+        long indexSize = size(indexPath);
+        long count = indexSize / RECORD_SIZE;
+        indexedTo = 0;
+        if (count > 0) {
+            try (SeekableByteChannel index = open(indexPath)) {
+                Record last = readRecords(index, count - 1, 1).get(0);
+                indexedTo = last.offset + last.length;
+            }
+        }
+        if (indexedTo > logSize) { // Текст заменен, индекс строится заново
+            count = 0;
+            indexedTo = 0;
+        }
+        if (count * RECORD_SIZE != indexSize) {
+            byte[] valid = new byte[(int) (count * RECORD_SIZE)];
+            if (count > 0)
+                System.arraycopy(dataProvider.read(indexPath), 0, valid, 0, valid.length);
+            dataProvider.write(indexPath, valid);
+        }
+        entries = count;
+        if (indexedTo < logSize)
+            indexText(indexedTo, logSize);
+        return entries;
+    }
+
+    // Разбор текста лога: запись начинается с заголовка и продолжается до следующего заголовка.
+    // Текст читается кусками по TEXT_CHUNK, в каждом разбираются только целые строки, неполная последняя
+    // строка перечитывается со следующим куском. Индекс дописывается после каждого куска
+    private void indexText(long from, long to) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        long entryStart = from;
+        Matcher entryHeader = null;
+        boolean skipLine = false; // Кусок начинается с продолжения строки длиннее TEXT_CHUNK
+        long position = from;
+        try (SeekableByteChannel log = open(logPath)) {
+            while (position < to) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TEXT_CHUNK, to - position));
+                log.position(position);
+                while (buffer.hasRemaining() && log.read(buffer) >= 0) { }
+                if (buffer.position() == 0)
+                    break;
+                String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1); // Символ на байт, смещения совпадают
+                boolean last = position + text.length() >= to;
+                int begin = 0;
+                if (skipLine) {
+                    begin = text.indexOf('\n') + 1;
+                    if (begin == 0)
+                        begin = text.length();
+                }
+                int end = last ? text.length() : text.lastIndexOf('\n') + 1;
+                if (end == 0 || end < begin) { // Строка не поместилась в кусок, заголовком она быть не может
+                    skipLine = true;
+                    position += text.length();
+                    continue;
+                }
+                skipLine = false;
+                int marker = text.indexOf(HEADER_MARKER, begin);
+                while (marker >= 0 && marker < end) { // Регулярное выражение проверяется только на строках с заголовком
+                    int lineStart = Math.max(begin, text.lastIndexOf('\n', marker) + 1);
+                    int lineEnd = text.indexOf('\n', marker);
+                    if (lineEnd < 0)
+                        lineEnd = text.length();
+                    Matcher header = HEADER.matcher(text.substring(lineStart, lineEnd));
+                    if (header.matches()) {
+                        if (entryHeader != null)
+                            records.write(indexRecord(format, entryStart, (int) (position + lineStart - entryStart), entryHeader));
+                        entryStart = position + lineStart;
+                        entryHeader = header;
+                    }
+                    marker = text.indexOf(HEADER_MARKER, lineEnd);
+                }
+                position += end;
+                if (records.size() > 0) {
+                    dataProvider.append(indexPath, records.toByteArray());
+                    records.reset();
+                }
+            }
+        }
+        if (entryHeader != null)
+            dataProvider.append(indexPath, indexRecord(format, entryStart, (int) (position - entryStart), entryHeader));
+        indexedTo = position;
+    }
+
+    private byte[] indexRecord(SimpleDateFormat format, long offset, int length, Matcher header){
+        entries++;
+        return record(offset, length, parseTime(format, header.group(2)), decode(header.group(1)), decode(header.group(3)));
+    }
+
+    private static String decode(String latin1){
+        return new String(latin1.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static long parseTime(SimpleDateFormat format, String date){
+        try {
+            return format.parse(date).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static Matcher header(byte[] text){
+        int lineEnd = 0;
+        while (lineEnd < text.length && text[lineEnd] != '\n')
+            lineEnd++;
+        Matcher header = HEADER.matcher(new String(text, 0, lineEnd));
+        return header.matches() ? header : null;
+    }
+
+    private static byte[] record(long offset, int length, long time, String user, String version){
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(offset).putInt(length).putLong(time).putInt(user.hashCode()).putInt(version.hashCode());
+        return record.array();
+    }
+
+    private static List<Record> readRecords(SeekableByteChannel index, long first, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_SIZE);
+        index.position(first * RECORD_SIZE);
+        while (buffer.hasRemaining() && index.read(buffer) >= 0) { }
+        buffer.flip();
+        List<Record> records = new ArrayList<>(count);
+        while (buffer.remaining() >= RECORD_SIZE) {
+            Record record = new Record(buffer.getLong(), buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+            buffer.getInt();
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static byte[] readText(SeekableByteChannel log, Record record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(record.length);
+        log.position(record.offset);
+        while (buffer.hasRemaining() && log.read(buffer) >= 0) { }
+        return buffer.array();
+    }
+
+    private SeekableByteChannel open(String path) throws IOException {
+        return dataProvider.openChannel(path);
+    }
+
+    private long size(String path) throws IOException {
+        if (!dataProvider.exists(path))
+            return 0;
+        try (SeekableByteChannel channel = open(path)) {
+            return channel.size();
+        }
+    }
+
+    private static class Record {
+        final long offset;
+        final int length;
+        final long time;
+        final int userHash;
+        final int versionHash;
+
+        Record(long offset, int length, long time, int userHash, int versionHash){
+            this.offset = offset;
+            this.length = length;
+            this.time = time;
+            this.userHash = userHash;
+            this.versionHash = versionHash;
+        }
+    }
+}
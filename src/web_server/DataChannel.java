@@ -0,0 +1,47 @@
+package web_server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+public class DataChannel implements Closeable {
+    // Аренда сокета для одной передачи данных. Закрытие освобождает аренду
+    private final DataChannelAllocator allocator;
+    private final String repo;
+    private final ServerSocket serverSocket;
+    private final int port;
+    private boolean closed;
+
+    DataChannel(DataChannelAllocator allocator, String repo, ServerSocket serverSocket){
+        this.allocator = allocator;
+        this.repo = repo;
+        this.serverSocket = serverSocket;
+        this.port = serverSocket.getLocalPort();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getRepo() {
+        return repo;
+    }
+
+    public Socket accept(int timeout) throws IOException {
+        serverSocket.setSoTimeout(timeout);
+        return serverSocket.accept();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            serverSocket.close();
+        } finally {
+            allocator.release(this);
+        }
+    }
+}
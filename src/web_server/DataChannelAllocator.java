@@ -0,0 +1,39 @@
+package web_server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DataChannelAllocator {
+    // Каждая передача получает свой сокет, поэтому один репозиторий может обслуживать много передач одновременно
+    // Порт возвращается в пул сразу после передачи, а не закрепляется за репозиторием навсегда
+    private final PortAllocator ports;
+    private final Map<String, AtomicInteger> activeTransfers;
+
+    public DataChannelAllocator(PortAllocator ports){
+        this.ports = ports;
+        activeTransfers = new ConcurrentHashMap<>();
+    }
+
+    public DataChannel open(String repo) throws IOException {
+        ServerSocket serverSocket = ports.lease();
+        activeTransfers.computeIfAbsent(repo, name -> new AtomicInteger()).incrementAndGet();
+        return new DataChannel(this, repo, serverSocket);
+    }
+
+    public int getActiveTransfers(String repo){
+        AtomicInteger count = activeTransfers.get(repo);
+        return (count == null) ? 0 : count.get();
+    }
+
+    public PortAllocator getPorts() {
+        return ports;
+    }
+
+    void release(DataChannel channel){
+        ports.release(channel.getPort());
+        activeTransfers.computeIfPresent(channel.getRepo(), (name, count) -> (count.decrementAndGet() <= 0) ? null : count);
+    }
+}
@@ -0,0 +1,212 @@
+package web_server;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+public class MetadataJournal implements Closeable {
+    // Журнал изменений метаданных VersionControl. Каждая запись: длина, CRC32, тип и поля.
+    // Снимок пишется в том же формате, поэтому восстановление = снимок + хвост журнала.
+    // Записи идемпотентны, так что повторное применение журнала после снимка безопасно.
+    // Запись только дописывается в буфер и получает номер, на диск ее сбрасывает sync. Сброс групповой:
+    // один поток делает fsync за все записи, накопленные к этому моменту, остальные ждут его и не повторяют
+    public interface Listener {
+        void onCreateRepo(String name, String path);
+        void onAddVersion(String repo, String version, String path, String parent, String[] names);
+        void onUpdateLastVersion(String repo, String version);
+    }
+
+    public interface SnapshotWriter {
+        void write(MetadataJournal snapshot) throws IOException;
+    }
+
+    private static final byte CREATE_REPO = 1;
+    private static final byte ADD_VERSION = 2;
+    private static final byte UPDATE_LAST_VERSION = 3;
+
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final boolean sync;
+    private FileChannel channel;
+    private DataOutputStream output;
+    private int recordCount;
+    private long appended; // Номер последней дописанной записи, не сбрасывается при сжатии
+    private final AtomicLong synced = new AtomicLong(); // Номер последней записи, сброшенной на диск
+    private final Object syncLock = new Object();
+
+    public MetadataJournal(Path journalFile, Path snapshotFile, boolean sync){
+        this.journalFile = journalFile;
+        this.snapshotFile = snapshotFile;
+        this.sync = sync;
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized void open(Listener listener) throws IOException {
+        if (Files.exists(snapshotFile))
+            replay(snapshotFile, listener);
+        recordCount = 0;
+        long validLength = Files.exists(journalFile) ? replay(journalFile, listener) : 0;
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength); // Отбрасываем недописанную при сбое запись
+        channel.position(validLength);
+        output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    public synchronized long logCreateRepo(String name, String path) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(CREATE_REPO);
+        out.writeUTF(name);
+        out.writeUTF(path);
+        return append(record.toByteArray());
+    }
+
+    public synchronized long logAddVersion(String repo, String version, String path, String parent, String[] names) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(ADD_VERSION);
+        out.writeUTF(repo);
+        out.writeUTF(version);
+        out.writeUTF(path);
+        out.writeUTF(parent);
+        out.writeInt(names.length);
+        for (String name: names)
+            out.writeUTF(name);
+        return append(record.toByteArray());
+    }
+
+    public synchronized long logUpdateLastVersion(String repo, String version) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(UPDATE_LAST_VERSION);
+        out.writeUTF(repo);
+        out.writeUTF(version);
+        return append(record.toByteArray());
+    }
+
+    // Пишет полный снимок во временный файл, атомарно подменяет старый и очищает журнал
+    public synchronized void compact(SnapshotWriter writer) throws IOException {
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        MetadataJournal snapshot = new MetadataJournal(tempFile, snapshotFile, false);
+        try (FileChannel snapshotChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            snapshot.channel = snapshotChannel;
+            snapshot.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(snapshotChannel)));
+            writer.write(snapshot);
+            snapshot.output.flush();
+            snapshotChannel.force(true);
+        }
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        output.flush();
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        recordCount = 0;
+        synced.accumulateAndGet(appended, Math::max); // Все записи уже в снимке
+    }
+
+    // Возвращается, когда запись с номером record и все предыдущие сброшены на диск
+    public void sync(long record) throws IOException {
+        if (synced.get() >= record)
+            return;
+        synchronized (syncLock) {
+            if (synced.get() >= record)
+                return;
+            long target;
+            FileChannel current;
+            synchronized (this) {
+                if (output == null)
+                    throw new IOException("Journal is not open");
+                output.flush();
+                target = appended;
+                current = channel;
+            }
+            if (sync)
+                current.force(false);
+            synced.accumulateAndGet(target, Math::max);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null)
+            output.close();
+        output = null;
+        channel = null;
+    }
+
+    private long append(byte[] payload) throws IOException {
+        if (output == null)
+            throw new IOException("Journal is not open");
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        output.writeInt(payload.length);
+        output.writeInt((int) crc.getValue());
+        output.write(payload);
+        recordCount++;
+        return ++appended;
+    }
+
+    // Возвращает длину корректной части файла
+    private long replay(Path file, Listener listener) throws IOException {
+        long validLength = 0;
+        long fileSize = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    int checksum = in.readInt();
+                    if (length < 0 || length > fileSize - validLength - 8)
+                        break;
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload, 0, payload.length);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+                    apply(payload, listener);
+                } catch (EOFException e) {
+                    break;
+                }
+                validLength += 8 + length;
+                recordCount++;
+            }
+        }
+        return validLength;
+    }
+
+    private static void apply(byte[] payload, Listener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        if (type == CREATE_REPO)
+            listener.onCreateRepo(in.readUTF(), in.readUTF());
+        else if (type == ADD_VERSION) {
+            String repo = in.readUTF();
+            String version = in.readUTF();
+            String path = in.readUTF();
+            String parent = in.readUTF();
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = in.readUTF();
+            listener.onAddVersion(repo, version, path, parent, names);
+        }
+        else if (type == UPDATE_LAST_VERSION)
+            listener.onUpdateLastVersion(in.readUTF(), in.readUTF());
+        else
+            throw new IOException("Unknown journal record type " + type);
+    }
+}
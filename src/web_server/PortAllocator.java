@@ -0,0 +1,71 @@
+package web_server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+public class PortAllocator {
+    // Свободные порты лежат в очереди, поэтому выдача и возврат порта - O(1).
+    // Порт, занятый чужим процессом, уходит в конец очереди, перебор ограничен MAX_BIND_ATTEMPTS
+    private static final int MAX_BIND_ATTEMPTS = 16;
+
+    private final int fromPort;
+    private final int toPort;
+    private final Deque<Integer> freePorts;
+    private final boolean[] leased;
+    private int leasedCount;
+
+    public PortAllocator(int fromPort, int toPort){
+        this.fromPort = fromPort;
+        this.toPort = toPort;
+        freePorts = new ArrayDeque<>(toPort - fromPort + 1);
+        leased = new boolean[toPort - fromPort + 1];
+        for (int port = fromPort; port <= toPort; port++)
+            freePorts.add(port);
+    }
+
+    public ServerSocket lease() throws IOException {
+        for (int attempt = 0; attempt < MAX_BIND_ATTEMPTS; attempt++) {
+            Integer port = poll();
+            if (port == null)
+                break;
+            try {
+                return new ServerSocket(port);
+            } catch (IOException e) {
+                release(port);
+            }
+        }
+        throw new IOException("No port available");
+    }
+
+    public synchronized void release(int port){
+        if (port < fromPort || port > toPort || !leased[port - fromPort])
+            return;
+        leased[port - fromPort] = false;
+        leasedCount--;
+        freePorts.addLast(port);
+    }
+
+    public synchronized int getLeasedCount() {
+        return leasedCount;
+    }
+
+    public synchronized int getFreeCount() {
+        return freePorts.size();
+    }
+
+    private synchronized Integer poll(){
+        Integer port = freePorts.pollFirst();
+        if (port != null) {
+            leased[port - fromPort] = true;
+            leasedCount++;
+        }
+        return port;
+    }
+
+    @Override
+    public String toString() {
+        return "ports " + fromPort + "-" + toPort + ": leased " + getLeasedCount() + ", free " + getFreeCount();
+    }
+}
@@ -2,12 +2,12 @@ package web_server;
 
 import managment.Manager;
 import perfomance.CommandFactory;
+import perfomance.PacketTypes;
 import perfomance.instances.processors.User;
 import utils.data.FolderProvider;
 import utils.data.NetDataTransporter;
 import utils.encrypt.IEncryptor;
 import utils.encrypt.XorEncryptor;
-import utils.serializers.Serializer;
 
 import java.io.*;
 import java.net.InetAddress;
@@ -28,9 +28,10 @@ public class RepoClient {
 
             CommandFactory factory = new CommandFactory();
             NetDataTransporter transporter = new NetDataTransporter(inputStream, outputStream);
-            Manager manager = new Manager(new Serializer(), transporter, factory);
+            Manager manager = new Manager(PacketTypes.createSerializer(), transporter, factory);
             User user = new User(manager, new FolderProvider(), address, System.out);
             manager.setCommandProcessor(user);
+            user.requestInlineTransfers();
 
             BufferedReader consoleIn = new BufferedReader(new InputStreamReader(System.in));
             while (true) {
@@ -0,0 +1,94 @@
+package web_server;
+
+import thread_dispatcher.ThreadedTask;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+public class SessionSelector extends ThreadedTask {
+    // Ожидающие команды сессии не занимают поток: их каналы стоят в селекторе.
+    // Когда от клиента приходят данные, сессия переводится в блокирующий режим и
+    // одна команда обрабатывается в пуле, после чего канал возвращается в селектор
+    public interface Session {
+        SocketChannel getChannel();
+        boolean step() throws Exception; // false - сессия завершена
+        void close();
+    }
+
+    private final Selector selector;
+    private final Executor workers;
+    private final Queue<Session> toRegister;
+
+    public SessionSelector(Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.toRegister = new ConcurrentLinkedQueue<>();
+    }
+
+    public void park(Session session){
+        toRegister.add(session);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                registerParked();
+                List<Session> ready = new ArrayList<>();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    key.cancel();
+                    ready.add((Session) key.attachment());
+                }
+                if (ready.isEmpty())
+                    continue;
+                selector.selectNow(); // Снимаем отмененные ключи, иначе канал нельзя сделать блокирующим
+                for (Session session: ready)
+                    dispatch(session);
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void registerParked(){
+        Session session;
+        while ((session = toRegister.poll()) != null) {
+            try {
+                session.getChannel().configureBlocking(false);
+                session.getChannel().register(selector, SelectionKey.OP_READ, session);
+            } catch (IOException e) {
+                session.close();
+            }
+        }
+    }
+
+    private void dispatch(Session session){
+        try {
+            session.getChannel().configureBlocking(true);
+            workers.execute(() -> {
+                try {
+                    if (session.step()) {
+                        park(session);
+                        return;
+                    }
+                } catch (Exception e) { }
+                session.close();
+            });
+        } catch (Exception e) {
+            session.close();
+        }
+    }
+}
@@ -1,22 +1,43 @@
 package web_server;
 
+import utils.data.BlobStore;
 import utils.data.IDataProvider;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class VersionControl {
     private final String repoDirectory;
     private final IDataProvider dataProvider;
+    private final BlobStore blobStore; // Общее для всех репозиториев хранилище содержимого файлов
+    private final MetadataJournal journal;
+    private final DataChannelAllocator dataChannels; // Сокеты для передачи данных, по одному на передачу
     private Map<String, String> repositories;
     private Map<String, String> repoLastVersion;
 
     private Map<String, Map<String, String>> repoVersionMapPaths; // Repo -> (Available version -> Path to version)
     private Map<String, Map<String, String[]>> repoVersionContent; // Repo -> (Available version -> Version content)
     private Map<String, Map<String, String>> repoPrevVersionMapNames; // Repo -> (Available version -> Previous version)
-    private Map<String, Integer> repoPortMap; // Repo -> Free port to connect to
     private Map<String, String> repoLogFileMap;
+    private Map<String, CommitLog> commitLogs;
+    private Map<String, ReadWriteLock> repoLocks; // Чтение версий репозитория идет параллельно, коммиты - по одному
+    private Map<String, Object> headLocks; // Проверка и смена последней версии репозитория
+    private final ReadWriteLock snapshotLock; // Публикации в разных репозиториях идут параллельно, снимок ждет их
     public static String LOG_FILE_NAME;
+    public static String LOG_INDEX_FILE_NAME;
+    public static String BLOB_DIRECTORY_NAME;
+    public static String MANIFEST_EXTENSION;
+    public static String INDEX_EXTENSION;
+    public static String HASHES_EXTENSION;
+    public static String JOURNAL_FILE_NAME;
+    public static String SNAPSHOT_FILE_NAME;
+    public static int SNAPSHOT_INTERVAL;
+    public static int DATA_PORT_FROM;
+    public static int DATA_PORT_TO;
     public static int SOCKET_ERROR;
     public static int TRANSPORT_ERROR;
     public static int WRITE_ERROR;
@@ -28,10 +49,22 @@ public class VersionControl {
     public static int NO_REPO_SELECTED_ERROR;
     public static int COMMAND_NOT_ALLOWED;
     public static int CANNOT_SAVE_LOG;
+    public static int STALE_BASE_ERROR;
+    public static int SERVER_BUSY_ERROR;
 
 
     static {
         LOG_FILE_NAME = "log.txt";
+        LOG_INDEX_FILE_NAME = "log.idx";
+        BLOB_DIRECTORY_NAME = ".objects";
+        MANIFEST_EXTENSION = ".manifest";
+        INDEX_EXTENSION = ".index";
+        HASHES_EXTENSION = ".hashes";
+        JOURNAL_FILE_NAME = ".journal";
+        SNAPSHOT_FILE_NAME = ".snapshot";
+        SNAPSHOT_INTERVAL = 1000;
+        DATA_PORT_FROM = 49152;
+        DATA_PORT_TO = 65535;
         SOCKET_ERROR = 401;
         TRANSPORT_ERROR = 402;
         WRITE_ERROR = 403;
@@ -43,68 +76,176 @@ public class VersionControl {
         CONNECTION_ERROR = 522;
         COMMAND_NOT_ALLOWED = 433;
         CANNOT_SAVE_LOG = 412;
+        STALE_BASE_ERROR = 409;
+        SERVER_BUSY_ERROR = 503;
     }
 
-    public VersionControl(IDataProvider dataProvider, String repoDirectory){
+    public VersionControl(IDataProvider dataProvider, String repoDirectory) throws IOException {
         this.repoDirectory = repoDirectory;
         this.dataProvider = dataProvider;
         dataProvider.setCurrentRoot(repoDirectory);
-        dataProvider.clearDirectory(repoDirectory);
-        repositories = new HashMap<>();
-        repoLastVersion = new HashMap<>();
-        repoVersionMapPaths = new HashMap<>();
-        repoVersionContent = new HashMap<>();
-        repoPrevVersionMapNames = new HashMap<>();
-        repoPortMap = new HashMap<>();
-        repoLogFileMap = new HashMap<>();
+        dataProvider.createDirectory(repoDirectory);
+        blobStore = new BlobStore(dataProvider, dataProvider.resolve(repoDirectory, BLOB_DIRECTORY_NAME));
+        blobStore.removeTemporary();
+        repositories = new ConcurrentHashMap<>();
+        repoLastVersion = new ConcurrentHashMap<>();
+        repoVersionMapPaths = new ConcurrentHashMap<>();
+        repoVersionContent = new ConcurrentHashMap<>();
+        repoPrevVersionMapNames = new ConcurrentHashMap<>();
+        repoLocks = new ConcurrentHashMap<>();
+        headLocks = new ConcurrentHashMap<>();
+        snapshotLock = new ReentrantReadWriteLock();
+        dataChannels = new DataChannelAllocator(new PortAllocator(DATA_PORT_FROM, DATA_PORT_TO));
+        repoLogFileMap = new ConcurrentHashMap<>();
+        commitLogs = new ConcurrentHashMap<>();
+        journal = new MetadataJournal(Paths.get(dataProvider.resolve(repoDirectory, JOURNAL_FILE_NAME)),
+                Paths.get(dataProvider.resolve(repoDirectory, SNAPSHOT_FILE_NAME)), true);
+        journal.open(new JournalReplayer());
     }
 
     public String getRepoDirectory() {
         return repoDirectory;
     }
 
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
     public String getRepoLogFile(String repo){
         repoLogFileMap.computeIfAbsent(repo, repoName -> dataProvider.resolve(repositories.get(repoName), LOG_FILE_NAME));
         return repoLogFileMap.get(repo);
     }
 
-    public int getRepoPort(String repo){
-        repoPortMap.putIfAbsent(repo, VersionControlServer.getUnusedFreePort());
-        return repoPortMap.get(repo);
+    public CommitLog getCommitLog(String repo){
+        return commitLogs.computeIfAbsent(repo, repoName -> new CommitLog(dataProvider, getRepoLogFile(repoName),
+                dataProvider.resolve(repositories.get(repoName), LOG_INDEX_FILE_NAME)));
+    }
+
+    public DataChannelAllocator getDataChannels() {
+        return dataChannels;
+    }
+
+    public ReadWriteLock getRepoLock(String repo){
+        return repoLocks.computeIfAbsent(repo, repoName -> new ReentrantReadWriteLock());
     }
 
     public Map<String, String> getPrevVersionMapNames(String repo) {
-        repoPrevVersionMapNames.putIfAbsent(repo, new HashMap<>());
-        return repoPrevVersionMapNames.get(repo);
+        return repoPrevVersionMapNames.computeIfAbsent(repo, repoName -> new ConcurrentHashMap<>());
     }
 
     public Map<String, String> getVersionMapPaths(String repo) {
-        repoVersionMapPaths.putIfAbsent(repo, new HashMap<>());
-        return repoVersionMapPaths.get(repo);
+        return repoVersionMapPaths.computeIfAbsent(repo, repoName -> new ConcurrentHashMap<>());
     }
 
     public Map<String, String[]> getVersionContent(String repo) {
         repoVersionContent.computeIfAbsent(repo, repoName -> {
-           Map<String, String[]> tempMap = new HashMap<>();
+           Map<String, String[]> tempMap = new ConcurrentHashMap<>();
            tempMap.put("", new String[0]);
            return tempMap;
         });
         return repoVersionContent.get(repo);
     }
 
-    public void createRepo(String name){
-        repositories.put(name, dataProvider.resolve(repoDirectory, name));
-        repoLastVersion.put(name, "");
+    // Под блокировкой репозитория только проверка, запись в буфер журнала и изменение карт. Сброс журнала
+    // на диск идет после нее и объединяется с публикациями в других репозиториях. Снимок при сжатии берет
+    // блокировку на запись, поэтому не застанет запись в журнале без изменения карт
+    public boolean createRepo(String name) throws IOException {
+        String path = dataProvider.resolve(repoDirectory, name);
+        long record;
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (getHeadLock(name)) {
+                if (repositories.containsKey(name))
+                    return false;
+                record = journal.logCreateRepo(name, path);
+                repositories.put(name, path);
+                repoLastVersion.put(name, "");
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        journal.sync(record);
         dataProvider.createDirectory(name);
+        compactIfNeeded();
+        return true;
+    }
+
+    public void updateLastVersion(String repoName, String version) throws IOException {
+        long record;
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (getHeadLock(repoName)) {
+                record = journal.logUpdateLastVersion(repoName, version);
+                repoLastVersion.put(repoName, version);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        journal.sync(record);
+        compactIfNeeded();
+    }
+
+    // Регистрирует новую версию и делает ее последней, только если последней все еще является expectedHead.
+    // Файлы версии должны быть записаны заранее: здесь лишь короткая проверка и одна запись журнала.
+    // Если сброс журнала не удался, версия уже опубликована, и исключение означает только то, что она не на диске
+    public boolean addVersion(String repoName, String expectedHead, String version, String path, String parent, String[] names) throws IOException {
+        long record;
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (getHeadLock(repoName)) {
+                if (!getLastVersion(repoName).equals(expectedHead))
+                    return false;
+                record = journal.logAddVersion(repoName, version, path, parent, names);
+                putVersion(repoName, version, path, parent, names);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        journal.sync(record);
+        compactIfNeeded();
+        return true;
     }
 
-    public void updateLastVersion(String repoName, String version){
+    private Object getHeadLock(String repoName){
+        return headLocks.computeIfAbsent(repoName, name -> new Object());
+    }
+
+    private void putVersion(String repoName, String version, String path, String parent, String[] names){
+        getVersionMapPaths(repoName).put(version, path);
+        getPrevVersionMapNames(repoName).put(version, parent);
+        getVersionContent(repoName).put(version, names);
         repoLastVersion.put(repoName, version);
     }
 
+    private void compactIfNeeded() throws IOException {
+        if (journal.getRecordCount() < SNAPSHOT_INTERVAL)
+            return;
+        snapshotLock.writeLock().lock();
+        try {
+            if (journal.getRecordCount() >= SNAPSHOT_INTERVAL)
+                compact();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private void compact() throws IOException {
+        journal.compact(snapshot -> {
+            for (Map.Entry<String, String> repo: repositories.entrySet()) {
+                String repoName = repo.getKey();
+                snapshot.logCreateRepo(repoName, repo.getValue());
+                Map<String, String> prevVersions = getPrevVersionMapNames(repoName);
+                Map<String, String[]> versionContent = getVersionContent(repoName);
+                for (Map.Entry<String, String> version: getVersionMapPaths(repoName).entrySet())
+                    snapshot.logAddVersion(repoName, version.getKey(), version.getValue(),
+                            prevVersions.get(version.getKey()), versionContent.get(version.getKey()));
+                snapshot.logUpdateLastVersion(repoName, getLastVersion(repoName));
+            }
+        });
+    }
+
     public String getLastVersion(String repoName){
-        repoLastVersion.putIfAbsent(repoName, "");
-        return repoLastVersion.get(repoName);
+        return repoLastVersion.getOrDefault(repoName, "");
     }
 
     public String getPathToRepo(String repoName){
@@ -115,4 +256,21 @@ public class VersionControl {
         return dataProvider.resolve(root, name);
     }
 
+    private class JournalReplayer implements MetadataJournal.Listener {
+        @Override
+        public void onCreateRepo(String name, String path) {
+            repositories.put(name, path);
+            repoLastVersion.putIfAbsent(name, "");
+        }
+
+        @Override
+        public void onAddVersion(String repo, String version, String path, String parent, String[] names) {
+            putVersion(repo, version, path, parent, names);
+        }
+
+        @Override
+        public void onUpdateLastVersion(String repo, String version) {
+            repoLastVersion.put(repo, version);
+        }
+    }
 }
@@ -2,7 +2,9 @@ package web_server;
 
 import managment.Manager;
 import perfomance.CommandFactory;
+import perfomance.PacketTypes;
 import perfomance.ICommandPacket;
+import perfomance.instances.packets.ResponsePacket;
 import perfomance.instances.processors.Repo;
 import thread_dispatcher.ThreadDispatcher;
 import thread_dispatcher.ThreadedTask;
@@ -15,37 +17,59 @@ import utils.encrypt.XorEncryptor;
 import utils.serializers.Serializer;
 
 import java.io.*;
-import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 
 public class VersionControlServer extends WebServer {
+    public enum SessionMode {
+        THREAD_PER_CLIENT, // Поток на все время сессии
+        SELECTOR           // Поток только на время обработки команды
+    }
+
     private ThreadDispatcher threadDispatcher;
     private VersionControl versionControl;
-    private static final int fromPort;
-    private static final int toPort;
-    private static final Set<Integer> usedPorts;
-    static {
-        fromPort = 49152;
-        toPort = 65535;
-        usedPorts = new HashSet<>();
+    private SessionSelector sessionSelector;
+
+    public VersionControlServer(int port, IDataProvider dataProvider, String repoDirectory) throws IOException {
+        this(port, dataProvider, repoDirectory, SessionMode.THREAD_PER_CLIENT);
     }
 
-    public VersionControlServer(int port, IDataProvider dataProvider, String repoDirectory){
+    public VersionControlServer(int port, IDataProvider dataProvider, String repoDirectory, SessionMode mode) throws IOException {
         super(port);
         versionControl = new VersionControl(dataProvider, repoDirectory);
         threadDispatcher = ThreadDispatcher.getInstance();
+        if (mode == SessionMode.SELECTOR) {
+            sessionSelector = new SessionSelector(threadDispatcher.getPool(ThreadDispatcher.WORKER_POOL));
+            threadDispatcher.startService(sessionSelector);
+        }
+    }
+    // Снимок пулов и выполняемых задач для оператора, пишется только по запросу
+    public void dumpStatus(Path file) throws IOException {
+        threadDispatcher.getMonitor().dump(file);
     }
+
     @Override
     protected void handleClient(Socket client) {
         ClientServant servant = new ClientServant(versionControl, client);
-        threadDispatcher.add(new ThreadedTask() {
+        if (sessionSelector != null) {
+            sessionSelector.park(servant);
+            return;
+        }
+        boolean accepted = threadDispatcher.add(ThreadDispatcher.SESSION_POOL, new ThreadedTask() {
             @Override
             public void run() {
                 servant.run();
             }
+
+            @Override
+            public String toString() {
+                return "session " + client.getRemoteSocketAddress();
+            }
         });
+        if (!accepted)
+            servant.reject(); // Сервер перегружен: клиент сразу получает ошибку и может переподключиться позже
+
     }
 
     public static void closeStream(Closeable stream) {
@@ -62,32 +86,12 @@ public class VersionControlServer extends WebServer {
         }
     }
 
-    private static ServerSocket createSocket(int port) throws IOException{
-        return new ServerSocket(port);
-    }
-
-    static Integer getUnusedFreePort(){
-        ServerSocket socket = null;
-        for (int i = fromPort; i < toPort; i++){
-            try {
-                socket = createSocket(i);
-                if (usedPorts.contains(i))
-                    continue;
-                usedPorts.add(i);
-                return i;
-            } catch (IOException e) {
-                continue;
-            }
-            finally {
-                closeStream(socket);
-            }
-        }
-        return -1;
-    }
-
-    static class ClientServant implements Runnable {
+    static class ClientServant implements Runnable, SessionSelector.Session {
         private Socket m_socket;
         private VersionControl versionControl;
+        private InputStream is;
+        private OutputStream os;
+        private Repo repo;
 
         public ClientServant(VersionControl versionControl, Socket socket) {
             m_socket = socket;
@@ -98,32 +102,61 @@ public class VersionControlServer extends WebServer {
         {
             try
             {
-                InputStream is = null;
-                OutputStream os = null;
-                try
-                {
-                    is = m_socket.getInputStream();
-                    os = m_socket.getOutputStream();
-
-                    CommandFactory factory = new CommandFactory();
-                    NetDataTransporter transporter = new NetDataTransporter(is, os);
-                    Manager manager = new Manager(new Serializer(), transporter, factory);
-                    Repo repo = new Repo(m_socket.getLocalAddress().toString(), manager, versionControl, new FolderProvider(), new SimpleVersionIncrement());
-                    manager.setCommandProcessor(repo);
-                    while (true){
-                        ICommandPacket response = repo.process(repo.get());
-                        repo.send(response);
-                    }
-                }
-                finally
-                {
-                    closeStream(os);
-                    closeStream(is);
-                    m_socket.close();
-                }
+                while (step()) { }
             }
             catch (Exception ex) { }
+            finally
+            {
+                close();
+            }
+        }
+
+        @Override
+        public SocketChannel getChannel() {
+            return m_socket.getChannel();
+        }
+
+        // Обрабатывает одну команду клиента
+        @Override
+        public boolean step() throws Exception {
+            if (repo == null)
+                open();
+            ICommandPacket response = repo.process(repo.get());
+            repo.send(response);
+            return true;
+        }
+
+        // Отвечает на первую команду клиента ошибкой, не читая ее, и закрывает соединение. Формат клиента
+        // еще неизвестен, поэтому ответ пишется в старом формате (Properties): его читают и старые клиенты,
+        // и новые - BinarySerializer отдает пакет без MAGIC запасному сериализатору
+        public void reject() {
+            try {
+                NetDataTransporter transporter = new NetDataTransporter(m_socket.getInputStream(), m_socket.getOutputStream());
+                transporter.send(new Serializer().serialize(
+                        new ResponsePacket(VersionControl.SERVER_BUSY_ERROR, "Server is busy, try again later")));
+                m_socket.shutdownOutput(); // Ответ уходит раньше, чем закрытие с непрочитанной командой сбросит соединение
+            } catch (Exception e) { }
+            finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            closeStream(os);
+            closeStream(is);
+            closeStream(m_socket);
+        }
+
+        private void open() throws IOException {
+            is = m_socket.getInputStream();
+            os = m_socket.getOutputStream();
+
+            CommandFactory factory = new CommandFactory();
+            NetDataTransporter transporter = new NetDataTransporter(is, os);
+            Manager manager = new Manager(PacketTypes.createSerializer(), transporter, factory);
+            repo = new Repo(m_socket.getLocalAddress().toString(), manager, versionControl, new FolderProvider(), new SimpleVersionIncrement());
+            manager.setCommandProcessor(repo);
         }
     }
 }
-
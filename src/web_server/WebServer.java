@@ -1,7 +1,8 @@
 package web_server;
 
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 
 public abstract class WebServer {
     protected final int port;
@@ -12,10 +13,12 @@ public abstract class WebServer {
 
     public void start(){
         try {
-            ServerSocket server = new ServerSocket(port);
+            // Принимаем через канал, чтобы у сокета клиента был SocketChannel для неблокирующего режима
+            ServerSocketChannel server = ServerSocketChannel.open();
             try {
+                server.bind(new InetSocketAddress(port));
                 while (true) {
-                    Socket client = server.accept();
+                    Socket client = server.accept().socket();
                     handleClient(client);
                 }
             } finally {